@@ -34,6 +34,24 @@ public class PaintConfig extends TouchupConfig {
 	public boolean full_msa;
 	public boolean weighted;
 
+	public String cachedir;
+	public long family_cache_limit; // in megabytes, 0 turns the family cache off
+	public long fixed_info_ttl; // hours before the saved server information is fetched again up front
+	public long book_catalog_ttl; // hours before the list of families is refreshed in the background
+
+	public String panther_url; // null for the PANTHER curation server
+	public int server_connect_timeout; // milliseconds
+	public int server_read_timeout; // milliseconds
+	public int server_max_connections;
+	public boolean gzip_requests;
+	public long search_deadline; // milliseconds, 0 waits as long as the server takes
+	public int search_cache_size; // number of search results remembered, 0 turns the search cache off
+	public long search_cache_ttl; // minutes a search result is remembered
+	public int connectivity_check_interval; // seconds between network checks while connected
+
+	public int open_threads; // worker threads for opening a family, 0 for one per processor
+	public int msa_threads; // worker threads for coloring the MSA, 0 for one per processor, 1 to color on the calling thread
+
 	private static PaintConfig preferences;
 
 	/**
@@ -85,6 +103,24 @@ public class PaintConfig extends TouchupConfig {
 		weighted = true;
 		
 		collapse_no_exp = false;
+
+		cachedir = "config/cache";
+		family_cache_limit = 512;
+		fixed_info_ttl = 24;
+		book_catalog_ttl = 24;
+
+		panther_url = null;
+		server_connect_timeout = 15 * 1000;
+		server_read_timeout = 5 * 60 * 1000;
+		server_max_connections = 4;
+		gzip_requests = false;
+		search_deadline = 60 * 1000;
+		search_cache_size = 100;
+		search_cache_ttl = 30;
+		connectivity_check_interval = 120;
+
+		open_threads = 0;
+		msa_threads = 0;
 		
 		preferences = this;
 
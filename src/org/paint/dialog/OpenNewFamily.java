@@ -32,12 +32,16 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.Vector;
 
+import javax.swing.AbstractListModel;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.ComboBoxModel;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
@@ -45,18 +49,27 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SpringLayout;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TableModelEvent;
+import javax.swing.plaf.basic.ComboPopup;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.text.JTextComponent;
 
 import org.apache.log4j.Logger;
 import org.bbop.swing.SpringUtilities;
+import org.paint.config.PaintConfig;
+import org.paint.panther.BookCatalog;
 import org.paint.panther.PantherDbInfo;
 import org.paint.panther.PantherServerAdapter;
-import org.paint.util.LoginUtil;
+import org.paint.panther.ServerRequest;
 
 import com.sri.panther.paintCommon.Book;
 
-public class OpenNewFamily extends JDialog implements ActionListener {
+public class OpenNewFamily extends JDialog implements ActionListener, ChangeListener {
 
 	/**
 	 * 
@@ -73,6 +86,7 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 	private JRadioButton definitionBtn;
 
 	protected JComboBox pickBook;
+	private CatalogModel catalog_model;
 
 	protected JTable familyTable;
 
@@ -84,6 +98,8 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 	private static final String MSG_PLEASE_ENTER_SEARCH_TERM = "Please enter a search term";
 	private static final String MSG_SERVER_ERROR_CANNOT_SEARCH_BOOKS =  "Server returned error, cannot search for protein family";
 	private static final String MSG_NO_BOOKS_FOR_SEARCH_CRITERIA = "No protein families found matching search criteria";
+	private static final String MSG_SEARCHING = "Searching...";
+	private static final String MSG_SEARCH_TIMED_OUT = "The server took too long to answer, please try the search again";
 
 	private static final String LABEL_ENTER = "Search for";
 	private static final String LABEL_SEARCH = "Search";
@@ -97,10 +113,16 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 	private static final String LABEL_SEARCH_DEFINITION = "Definition (partial def supported)";
 	private static final String LABEL_TITLE = "Open Protein Family";;
 
+	private static final String PROTOTYPE_ID = "PTHR00000";
+	private static final String COMBO_EDITED = "comboBoxEdited";
+	private static final String COMBO_CHANGED = "comboBoxChanged";
+
 	private static final String[] COLUMN_NAMES = {"PANTHER Id", "Protein Family Name"};
 
 	private Vector<Book> bookList;
 
+	private ServerRequest<Vector> pending_search;
+
 	String openBookId = null;
 
 //	private static Logger log = Logger.getLogger(OpenNewFamily.class);
@@ -109,6 +131,7 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 		super(frame, true);
 		setTitle(LABEL_TITLE);
 		bookList = new Vector<Book> ();
+		BookCatalog.inst().open();
 
 		openFamilyPanel = new JPanel();
 		openFamilyPanel.setLayout(new BorderLayout());
@@ -135,6 +158,16 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 		choicePanel.add(label);
 		searchTerm = new JTextField(20);
 		searchTerm.addActionListener(new BooksListActionListener());
+		searchTerm.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				cancelSearch();
+			}
+			public void removeUpdate(DocumentEvent e) {
+				cancelSearch();
+			}
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
 		label.setLabelFor(searchTerm);
 		choicePanel.add(searchTerm);
 		
@@ -163,15 +196,127 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 	}
 
 	private JComboBox getBookBox() {		
-		pickBook = new JComboBox(getBooks());
+		catalog_model = new CatalogModel();
+		pickBook = new JComboBox(catalog_model);
 		pickBook.setEditable(true);
 		pickBook.setMaximumRowCount(10);
 		pickBook.setName(LABEL_PICK_ID);
 		pickBook.setAlignmentY(Component.TOP_ALIGNMENT);
+		pickBook.setPrototypeDisplayValue(PROTOTYPE_ID);
+		pickBook.setRenderer(new CatalogRenderer());
+		/*
+		 * There are thousands of families, so the popup list should not have to
+		 * measure every one of them to lay itself out
+		 */
+		Object popup = pickBook.getUI().getAccessibleChild(pickBook, 0);
+		if (popup instanceof ComboPopup) {
+			((ComboPopup) popup).getList().setPrototypeCellValue(PROTOTYPE_ID);
+		}
+		final JTextComponent editor = (JTextComponent) pickBook.getEditor().getEditorComponent();
+		editor.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				filterBooks(editor);
+			}
+			public void removeUpdate(DocumentEvent e) {
+				filterBooks(editor);
+			}
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
 		pickBook.addActionListener(this);
 		return pickBook;
 	}
 
+	/*
+	 * Narrow the families on offer to those matching what has been typed so far.
+	 * This has to wait until the document has finished changing.
+	 */
+	private void filterBooks(final JTextComponent editor) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				String text = editor.getText();
+				// Picking a family from the list also changes the text, but that is not typing
+				if (!editor.isFocusOwner() || text.equals(catalog_model.getSelectedItem())) {
+					return;
+				}
+				if (catalog_model.setFilter(text) && pickBook.isShowing()) {
+					pickBook.showPopup();
+				}
+			}
+		});
+	}
+
+	public void stateChanged(ChangeEvent e) {
+		// The catalog was read from disk or refreshed from the server
+		catalog_model.reload();
+	}
+
+	/*
+	 * The families in the catalog whose ID or name matches the text in the editor.
+	 * The typed text itself is kept as the selection so that refreshing the list does not
+	 * overwrite what the user is typing.
+	 */
+	private class CatalogModel extends AbstractListModel implements ComboBoxModel {
+		private static final long serialVersionUID = 1L;
+
+		private Book [] matches;
+		private String filter;
+		private Object selected;
+
+		CatalogModel() {
+			// filled in by display(), and again as the catalog loads
+			matches = new Book[0];
+			filter = "";
+		}
+
+		boolean setFilter(String text) {
+			filter = text != null ? text.trim() : "";
+			selected = text;
+			reload();
+			return matches.length > 0;
+		}
+
+		void reload() {
+			int previous = matches.length;
+			matches = BookCatalog.inst().find(filter, 0);
+			fireContentsChanged(this, 0, Math.max(0, Math.max(previous, matches.length) - 1));
+		}
+
+		public int getSize() {
+			return matches.length;
+		}
+
+		public Object getElementAt(int index) {
+			return index < matches.length ? matches[index].getId() : null;
+		}
+
+		public void setSelectedItem(Object item) {
+			if (item == null ? selected != null : !item.equals(selected)) {
+				selected = item;
+				fireContentsChanged(this, -1, -1);
+			}
+		}
+
+		public Object getSelectedItem() {
+			return selected;
+		}
+	}
+
+	private class CatalogRenderer extends DefaultListCellRenderer {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Component getListCellRendererComponent(JList list, Object value, int index,
+				boolean isSelected, boolean cellHasFocus) {
+			Object label = value;
+			Book book = value != null && index >= 0 ? BookCatalog.inst().getBook(value.toString()) : null;
+			if (book != null && book.getName() != null && book.getName().length() > 0) {
+				label = book.getId() + "  " + book.getName();
+			}
+			return super.getListCellRendererComponent(list, label, index, isSelected, cellHasFocus);
+		}
+	}
+
 	private JPanel getSearchButton() {
 		submitBtn = new JButton(LABEL_SEARCH);
 		submitBtn.addActionListener(new BooksListActionListener());
@@ -319,6 +464,7 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 	public class BooksListActionListener implements ActionListener {
 
 		public void actionPerformed(ActionEvent e) {
+			cancelSearch();
 			status_message.setText("");
 			String searchStr = searchTerm.getText();
 			if (null == searchStr || 0 == searchStr.length()) {
@@ -330,46 +476,96 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 			sendInfo.add(searchStr);
 			sendInfo.add(PantherDbInfo.getDbAndVersionKey());
 			bookList.removeAllElements();
-			Vector infoFromServer = null;
 			submitBtn.setSelected(true);
+			status_message.setText(MSG_SEARCHING);
 			PantherServerAdapter server = PantherServerAdapter.inst();
-			
+			long deadline = PaintConfig.inst().search_deadline;
+
+			final ServerRequest<Vector> search;
+			Vector<Book> local_matches = null;
+			if (OpenNewFamily.this.definitionBtn.isSelected()) {
+				local_matches = BookCatalog.inst().searchDefinition(searchStr);
+			}
+			if (local_matches != null) {
+				// The catalog's family names already match, no need to ask the server
+				bookList = local_matches;
+				status_message.setText("");
+				initializeBooksList(bookList);
+				submitBtn.setSelected(false);
+				return;
+			}
 			if (OpenNewFamily.this.geneSymbolBtn.isSelected()) {
-				infoFromServer = server.searchGeneName(sendInfo, null, null);
+				search = server.searchGeneNameAsync(sendInfo, null, null, deadline);
 			} else if (OpenNewFamily.this.geneIdentifierBtn.isSelected()) {
-				infoFromServer = server.searchGeneExtId(sendInfo, null, null);
+				search = server.searchGeneExtIdAsync(sendInfo, null, null, deadline);
 			} else if (OpenNewFamily.this.proteinIdentifierBtn.isSelected()) {
-				infoFromServer = server.searchProteinExtId(sendInfo, null, null);
+				search = server.searchProteinExtIdAsync(sendInfo, null, null, deadline);
 			}
 			else {
-				infoFromServer = server.searchDefinition(sendInfo, null, null); 
+				search = server.searchDefinitionAsync(sendInfo, null, null, deadline); 
 			}
-			if ((null == infoFromServer) || (0 == infoFromServer.size())){
-				status_message.setText(MSG_SERVER_ERROR_CANNOT_SEARCH_BOOKS);
-				OpenNewFamily.this.initializeBooksList(bookList);
-				submitBtn.setSelected(false);
-				return;
-			}
-
-			String  errorMsg = (String) infoFromServer.elementAt(0);
+			pending_search = search;
+			search.onCompletion(new Runnable() {
+				public void run() {
+					if (search == pending_search) {
+						pending_search = null;
+						showSearchResults(search);
+					}
+				}
+			});
+		}
+	}
 
-			if (0 != errorMsg.length()){
-				status_message.setText(errorMsg);
-				OpenNewFamily.this.initializeBooksList(bookList);
-				submitBtn.setSelected(false);
-				return;
-			}
+	/*
+	 * A new query, or closing the dialog, makes any search still in progress pointless
+	 */
+	private void cancelSearch() {
+		if (pending_search != null) {
+			pending_search.cancel(true);
+			pending_search = null;
+			submitBtn.setSelected(false);
+		}
+	}
 
-			bookList = (Vector<Book>) infoFromServer.elementAt(1);
+	private void showSearchResults(ServerRequest<Vector> search) {
+		if (search.isTimedOut()) {
+			status_message.setText(MSG_SEARCH_TIMED_OUT);
+			initializeBooksList(bookList);
+			submitBtn.setSelected(false);
+			return;
+		}
+		Vector infoFromServer = null;
+		try {
+			infoFromServer = search.get();
+		} catch (Exception e) {
+			infoFromServer = null;
+		}
+		status_message.setText("");
+		if ((null == infoFromServer) || (0 == infoFromServer.size())){
+			status_message.setText(MSG_SERVER_ERROR_CANNOT_SEARCH_BOOKS);
+			initializeBooksList(bookList);
+			submitBtn.setSelected(false);
+			return;
+		}
 
-			int numBooks = bookList.size();
-			if (0 == numBooks) {
-				status_message.setText(MSG_NO_BOOKS_FOR_SEARCH_CRITERIA);
-			}
+		String  errorMsg = (String) infoFromServer.elementAt(0);
 
-			OpenNewFamily.this.initializeBooksList(bookList);
+		if (0 != errorMsg.length()){
+			status_message.setText(errorMsg);
+			initializeBooksList(bookList);
 			submitBtn.setSelected(false);
+			return;
 		}
+
+		bookList = (Vector<Book>) infoFromServer.elementAt(1);
+
+		int numBooks = bookList.size();
+		if (0 == numBooks) {
+			status_message.setText(MSG_NO_BOOKS_FOR_SEARCH_CRITERIA);
+		}
+
+		initializeBooksList(bookList);
+		submitBtn.setSelected(false);
 	}
 
 	public void actionPerformed(ActionEvent e) {
@@ -379,41 +575,47 @@ public class OpenNewFamily extends JDialog implements ActionListener {
 				openBook(row);
 			}
 		} else if (e.getActionCommand().equals(LABEL_CANCEL)) {
+			cancelSearch();
 			openBookId = null;
 			this.setVisible(false);       	
-		} else if (e.getActionCommand().equals("comboBoxChanged")){
-			if (pickBook.getSelectedIndex() >= 0){
-				String book_id = (String) pickBook.getSelectedItem();
-				Book fake_book = new Book(book_id, "", 0, null);
-				bookList.clear();
-				bookList.add(fake_book);
+		} else if (e.getActionCommand().equals(COMBO_CHANGED) || e.getActionCommand().equals(COMBO_EDITED)){
+			Object picked = pickBook.getSelectedItem();
+			if (picked != null && picked.toString().trim().length() > 0){
+				String book_id = picked.toString().trim();
+				Book book = BookCatalog.inst().getBook(book_id);
+				if (book == null) {
+					// Half typed IDs are only taken at face value once the user presses enter
+					if (!e.getActionCommand().equals(COMBO_EDITED) && BookCatalog.inst().size() > 0) {
+						return;
+					}
+					book = new Book(book_id, "", 0, null);
+				}
+				bookList = new Vector<Book>();
+				bookList.add(book);
 				initializeBooksList(bookList);
+				openBtn.setEnabled(true);
+				familyTable.setRowSelectionInterval(0, 0);
 			}
 		}
 	}
 
 	protected void openBook(int row) {
+		cancelSearch();
 		this.setVisible(false);
 		Book book = bookList.elementAt(row);
 		openBookId = book.getId();
 	}
 
 	public String display() {
-		setVisible(true);
+		BookCatalog.inst().addChangeListener(this);
+		// catch up with whatever the catalog has loaded since the dialog was made
+		catalog_model.reload();
+		try {
+			setVisible(true);
+		} finally {
+			BookCatalog.inst().removeChangeListener(this);
+		}
 		return openBookId;
 	}
 
-	private String [] getBooks() {
-		// If document has been updated, attempt to save before opening/locking another
-		Vector<? extends Object>  bookList = PantherServerAdapter.inst().listFamilies(LoginUtil.getUserInfo(), PantherDbInfo.getDbAndVersionKey());
-
-		String  errorMsg = (String) bookList.elementAt(0);
-
-		if (errorMsg.length() > 0){
-			return (new String [0]);
-		} else {
-			return (String[]) bookList.elementAt(1);
-		}
-	}
-	
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.displaymodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import owltools.gaf.Bioentity;
+
+/**
+ * The display state of every node in a family, kept as one array per field
+ * rather than as fields of each DisplayBioentity. With tens of thousands of nodes
+ * the per-object overhead of booleans, boxed lists and hash tables adds up,
+ * whereas a few arrays indexed by node number hardly cost more than their contents.
+ *
+ * A DisplayBioentity holds its number and reads and writes its state here.
+ * The original order of each node's children is kept as first child and next sibling numbers.
+ * Strings that many nodes share, such as taxa and ortholog groups, are stored once.
+ */
+public class CompactTree {
+
+	static final int EXPANDED = 0x01;
+	static final int SELECTED = 0x02;
+	static final int VISIBLE = 0x04;
+	static final int SUBFAMILY = 0x08;
+	private static final int CHILD_ORDER = 0x10;
+
+	private static final int NONE = -1;
+
+	private int size;
+
+	private DisplayBioentity [] nodes;
+	private byte [] flags;
+	private int [] dup_color;
+	private int [] clade_top;
+	private int [] clade_bottom;
+	private double [] sequence_wt;
+
+	/*
+	 * The children in the order the tree was read, filled in by recordChildOrder()
+	 */
+	private int [] first_child;
+	private int [] next_sibling;
+
+	/*
+	 * Attribute columns, each with a value for every node
+	 */
+	private final Map<String, String []> attributes = new HashMap<String, String []>();
+
+	private final Map<String, String> strings = new HashMap<String, String>();
+
+	public CompactTree() {
+		this(256);
+	}
+
+	public CompactTree(int capacity) {
+		capacity = Math.max(1, capacity);
+		nodes = new DisplayBioentity[capacity];
+		flags = new byte[capacity];
+		dup_color = new int[capacity];
+		clade_top = new int[capacity];
+		clade_bottom = new int[capacity];
+		sequence_wt = new double[capacity];
+	}
+
+	/**
+	 * @return the number the node is known by from now on
+	 */
+	synchronized int add(DisplayBioentity node) {
+		if (size == nodes.length) {
+			grow(Math.max(1, size * 2));
+		}
+		int index = size++;
+		nodes[index] = node;
+		clade_top[index] = Integer.MIN_VALUE;
+		clade_bottom[index] = Integer.MAX_VALUE;
+		return index;
+	}
+
+	private void grow(int capacity) {
+		nodes = Arrays.copyOf(nodes, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		dup_color = Arrays.copyOf(dup_color, capacity);
+		clade_top = Arrays.copyOf(clade_top, capacity);
+		clade_bottom = Arrays.copyOf(clade_bottom, capacity);
+		sequence_wt = Arrays.copyOf(sequence_wt, capacity);
+		if (first_child != null) {
+			int old = first_child.length;
+			first_child = Arrays.copyOf(first_child, capacity);
+			next_sibling = Arrays.copyOf(next_sibling, capacity);
+			Arrays.fill(first_child, old, capacity, NONE);
+			Arrays.fill(next_sibling, old, capacity, NONE);
+		}
+		for (Map.Entry<String, String []> column : attributes.entrySet()) {
+			column.setValue(Arrays.copyOf(column.getValue(), capacity));
+		}
+	}
+
+	/**
+	 * Drops the room left for nodes that were never added, once the tree has been read
+	 */
+	public synchronized void trim() {
+		if (size < nodes.length) {
+			grow(size);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	boolean getFlag(int index, int flag) {
+		return (flags[index] & flag) != 0;
+	}
+
+	void setFlag(int index, int flag, boolean on) {
+		if (on) {
+			flags[index] |= flag;
+		} else {
+			flags[index] &= ~flag;
+		}
+	}
+
+	int getDupColorIndex(int index) {
+		return dup_color[index];
+	}
+
+	void setDupColorIndex(int index, int color_index) {
+		dup_color[index] = color_index;
+	}
+
+	int getCladeTop(int index) {
+		return clade_top[index];
+	}
+
+	int getCladeBottom(int index) {
+		return clade_bottom[index];
+	}
+
+	void setCladeExtent(int index, int top, int bottom) {
+		clade_top[index] = top;
+		clade_bottom[index] = bottom;
+	}
+
+	double getSequenceWt(int index) {
+		return sequence_wt[index];
+	}
+
+	void setSequenceWt(int index, double weight) {
+		sequence_wt[index] = weight;
+	}
+
+	/**
+	 * Remembers the current order of the node's children as their original order
+	 *
+	 * @return false if some child belongs to another tree, so the order could not be kept here
+	 */
+	synchronized boolean recordChildOrder(int index, List<Bioentity> children) {
+		for (Bioentity child : children) {
+			if (indexOf(child) == NONE) {
+				return false;
+			}
+		}
+		if (first_child == null) {
+			first_child = new int[nodes.length];
+			next_sibling = new int[nodes.length];
+			Arrays.fill(first_child, NONE);
+			Arrays.fill(next_sibling, NONE);
+		}
+		int previous = NONE;
+		first_child[index] = NONE;
+		for (Bioentity child : children) {
+			int child_index = indexOf(child);
+			if (previous == NONE) {
+				first_child[index] = child_index;
+			} else {
+				next_sibling[previous] = child_index;
+			}
+			next_sibling[child_index] = NONE;
+			previous = child_index;
+		}
+		setFlag(index, CHILD_ORDER, true);
+		return true;
+	}
+
+	/**
+	 * @return the children in their original order, or null if it was never recorded
+	 */
+	List<Bioentity> getOriginalChildren(int index) {
+		if (!getFlag(index, CHILD_ORDER)) {
+			return null;
+		}
+		List<Bioentity> children = new ArrayList<Bioentity>();
+		for (int child = first_child[index]; child != NONE; child = next_sibling[child]) {
+			children.add(nodes[child]);
+		}
+		return children;
+	}
+
+	private int indexOf(Bioentity node) {
+		if (node instanceof DisplayBioentity && ((DisplayBioentity) node).getCompactTree() == this) {
+			return ((DisplayBioentity) node).getCompactIndex();
+		}
+		return NONE;
+	}
+
+	synchronized String getAttribute(int index, String type) {
+		String [] column = attributes.get(type);
+		return column != null ? column[index] : null;
+	}
+
+	synchronized void setAttribute(int index, String type, String value) {
+		String [] column = attributes.get(type);
+		if (column == null) {
+			column = new String[nodes.length];
+			attributes.put(intern(type), column);
+		}
+		column[index] = intern(value);
+	}
+
+	/**
+	 * The one copy of the string kept for this tree
+	 */
+	public synchronized String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		String kept = strings.get(s);
+		if (kept == null) {
+			strings.put(s, s);
+			kept = s;
+		}
+		return kept;
+	}
+}
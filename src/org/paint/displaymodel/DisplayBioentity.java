@@ -30,10 +30,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
-import java.awt.font.TextAttribute;
-import java.text.AttributedString;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -73,16 +70,20 @@ public class DisplayBioentity extends Bioentity {
 	 */
 	private String ortho_mcl;
 
+	/*
+	 * Where the flags, colour index, clade extent, sequence weight, attributes and
+	 * original child order of this node are kept, under its index
+	 */
+	private final CompactTree core;
+	private final int index;
+	/*
+	 * Only used if some child belongs to a different CompactTree
+	 */
 	private List<Bioentity> originalChildrenOrder;
 
-	private boolean is_subfamily;
-	private boolean is_expanded;
 	//	private boolean blocked;
-	private boolean selected;
-	private boolean visible;
 
 	private Rectangle screenRectangle;
-	private Point screenPosition;
 
 	private static Logger log = Logger.getLogger(DisplayBioentity.class);
 
@@ -90,9 +91,7 @@ public class DisplayBioentity extends Bioentity {
 	private   Color	subFamilyColor = Color.black;
 
 	//	private int depthInTree;
-	private int dupColorIndex;
 
-	private double sequenceWt = 0;
 	private String hmm_seq;
 
 	private HyperlinkLabel accLabel;
@@ -100,18 +99,38 @@ public class DisplayBioentity extends Bioentity {
 	private OrthoCell ortho_cell;
 	private HyperlinkLabel permaID;
 
-	private Hashtable<String, String> attrLookup = new Hashtable<String, String>();
-
 	private Color dropColor;
 
+	/*
+	 * Font, colour and label worked out by RenderUtil, kept until the annotations change
+	 */
+	private RenderState render_state;
+
 	// Methods
 	public DisplayBioentity(boolean isExpanded) {
+		this(new CompactTree(1), isExpanded);
+	}
+
+	/**
+	 * @param core - where the nodes of the same tree keep their state
+	 */
+	public DisplayBioentity(CompactTree core, boolean isExpanded) {
 		super();
-		this.is_expanded = isExpanded;
-		this.visible = true;
+		this.core = core;
+		this.index = core.add(this);
+		core.setFlag(index, CompactTree.EXPANDED, isExpanded);
+		core.setFlag(index, CompactTree.VISIBLE, true);
 		this.ortho_mcl = STR_EMPTY;
 	}
 
+	public CompactTree getCompactTree() {
+		return core;
+	}
+
+	public int getCompactIndex() {
+		return index;
+	}
+
 	//	public void setDepthInTree (int depth) {
 	//		depthInTree = depth;
 	//	}
@@ -133,8 +152,8 @@ public class DisplayBioentity extends Bioentity {
 	private void connectToParent(DisplayBioentity currentRoot, Graphics g){
 		DisplayBioentity  parent = (DisplayBioentity) getParent();
 		if ((null != parent) && (currentRoot != this)){
-			Point parentPos = new Point(parent.getScreenPosition());
-			Point currentPos = new Point(getScreenPosition());
+			Point parentPos = parent.getScreenPosition();
+			Point currentPos = getScreenPosition();
 			g.setColor(RenderUtil.getLineColor(this));
 			/* first draw a vertical hook up/down from the parent 
 			 * try to avoid drawing on top of the parent glyph
@@ -200,7 +219,7 @@ public class DisplayBioentity extends Bioentity {
 
 
 		Rectangle r = new Rectangle(getScreenRectangle());
-		Point p = new Point(getScreenPosition());
+		Point p = getScreenPosition();
 		Color       fillColor = dropColor != null ? dropColor :
 			RenderUtil.annotationStatusColor(this, GuiConstant.BACKGROUND_COLOR, true);
 		if (isSelected()) {
@@ -311,24 +330,24 @@ public class DisplayBioentity extends Bioentity {
 
 			/*
 			 */	
-			String  s = getNodeLabel();
+			String  s = RenderUtil.getNodeLabel(this);
+			boolean pruned = isPruned();
 
-			if (isPruned()) {
+			if (pruned) {
 				s = "XXX-" + s;
 				g.setColor(GuiConstant.BACKGROUND_COLOR);
 			} else
 				g.setColor(DuplicationColor.inst().getDupColor(getDupColorIndex()));
 			g.fillRect(x, p.y - GLYPH_RADIUS, viewport.width, GLYPH_DIAMETER * 2);
 
-			AttributedString as = new AttributedString(s);
-			as.addAttribute(TextAttribute.FONT, f);
 			g.setColor(RenderUtil.annotationStatusColor(this, GuiConstant.FOREGROUND_COLOR, false));
 			if (null != s) {
 				int text_x = p.x + NODE_TO_TEXT_OFFSET;
 				int text_y = p.y + (r.height / 2);
-				g.drawString(as.getIterator(), text_x, text_y);
+				// the node's font is already set on g
+				g.drawString(s, text_x, text_y);
 				fm = g.getFontMetrics(f);
-				int text_width = fm.stringWidth(s);	
+				int text_width = pruned ? fm.stringWidth(s) : RenderUtil.getLabelWidth(this, fm);
 				x += text_width;
 			} else {
 				log.debug("Why is label null for " + this.toString());
@@ -375,6 +394,39 @@ public class DisplayBioentity extends Bioentity {
 			return false;
 	}
 
+	/**
+	 * Returns false if nothing of this node's clade, including the line to its parent,
+	 * can be drawn in the viewport. If this cannot be determined, return true.
+	 */
+	public boolean cladeFallsInViewport(Rectangle viewport) {
+		int top = core.getCladeTop(index);
+		int bottom = core.getCladeBottom(index);
+		Bioentity parent = getParent();
+		Rectangle parentRect = parent != null ? ((DisplayBioentity) parent).getScreenRectangle() : null;
+		if (parentRect != null) {
+			top = Math.min(top, parentRect.y);
+			bottom = Math.max(bottom, parentRect.y + parentRect.height);
+		}
+		// glyphs are centred on the node's position and may stick out of its rectangle
+		return bottom + GLYPH_DIAMETER >= viewport.y && top - GLYPH_DIAMETER <= viewport.y + viewport.height;
+	}
+
+	/*
+	 * How far up and down the screen this node and its visible descendants reach,
+	 * unknown until the tree has been laid out
+	 */
+	public void setCladeExtent(int top, int bottom) {
+		core.setCladeExtent(index, top, bottom);
+	}
+
+	public int getCladeTop() {
+		return core.getCladeTop(index);
+	}
+
+	public int getCladeBottom() {
+		return core.getCladeBottom(index);
+	}
+
 	public String getNodeLabel(){
 		String  s = null;
 		if (isLeaf()){
@@ -406,8 +458,6 @@ public class DisplayBioentity extends Bioentity {
 		int y_spot = (int) Math.round(y);
 		int width = (int) Math.round(w);
 		int height = (int) Math.round(h);
-		Point p = new Point(x_spot, y_spot);
-		setScreenPosition(p);
 		screenRectangle = new Rectangle(x_spot, y_spot, height, width);
 	}
 
@@ -423,25 +473,21 @@ public class DisplayBioentity extends Bioentity {
 		return screenRectangle;
 	}
 
-	private void setScreenPosition (Point position) {
-		screenPosition = position;
-	}
-
 	private Point getScreenPosition() {
-		return screenPosition;
+		return new Point(screenRectangle.x, screenRectangle.y);
 	}
 
 	public boolean isVisible() {
-		return visible;
+		return core.getFlag(index, CompactTree.VISIBLE);
 	}
 
 	public void setVisible(boolean visible) {
-		this.visible = visible;
+		core.setFlag(index, CompactTree.VISIBLE, visible);
 	}
 
 	public boolean isTerminus() {
 		boolean terminus = super.isTerminus();
-		return terminus || (!is_expanded);
+		return terminus || !isExpanded();
 	}
 
 	public String getSequence() {
@@ -453,11 +499,11 @@ public class DisplayBioentity extends Bioentity {
 	}
 
 	public void setSequenceWt(double sequenceWt) {
-		this.sequenceWt = sequenceWt;
+		core.setSequenceWt(index, sequenceWt);
 	}
 
 	public double getSequenceWt() {
-		return sequenceWt;
+		return core.getSequenceWt(index);
 	}
 
 	public HyperlinkLabel getAccLabel() {
@@ -505,7 +551,7 @@ public class DisplayBioentity extends Bioentity {
 	}
 
 	public void setOrthoMCL(String ortho_mcl) {
-		this.ortho_mcl = ortho_mcl;
+		this.ortho_mcl = core.intern(ortho_mcl);
 	}
 
 	public String getOrthoMCL() {
@@ -540,16 +586,16 @@ public class DisplayBioentity extends Bioentity {
 
 	public void setAttrLookup(String type, String value) {
 		if (null != type && null != value) {
-			attrLookup.put(type, value);
+			core.setAttribute(index, type, value);
 		}
 	}
 
 	public String getAttrLookup(String type) {
-		return attrLookup.get(type);
+		return core.getAttribute(index, type);
 	}
 
 	public void setSubFamilyName(String name) {
-		subFamilyName = name;
+		subFamilyName = core.intern(name);
 	}
 
 	public String getSubFamilyName() {
@@ -557,11 +603,11 @@ public class DisplayBioentity extends Bioentity {
 	}
 
 	public void setIsSubfamily(boolean subfamily) {
-		is_subfamily = subfamily;
+		core.setFlag(index, CompactTree.SUBFAMILY, subfamily);
 	}
 
 	public boolean isSubfamily() {
-		return is_subfamily;
+		return core.getFlag(index, CompactTree.SUBFAMILY);
 	}
 
 	public void setNodeNote(String note) {
@@ -573,22 +619,22 @@ public class DisplayBioentity extends Bioentity {
 	}
 
 	public void setExpanded(boolean expanded) {
-		is_expanded = expanded;
+		core.setFlag(index, CompactTree.EXPANDED, expanded);
 		if (expanded) {
 			PaintConfig.inst().collapse_no_exp = false;
 		}
 	}
 
 	public boolean isExpanded() {
-		return is_expanded;
+		return core.getFlag(index, CompactTree.EXPANDED);
 	}
 
 	public void setSelected (boolean selected) {
-		this.selected = selected;
+		core.setFlag(index, CompactTree.SELECTED, selected);
 	}
 
 	public boolean isSelected () {
-		return this.selected;
+		return core.getFlag(index, CompactTree.SELECTED);
 	}
 
 	public String getHMMSeq() {
@@ -603,19 +649,27 @@ public class DisplayBioentity extends Bioentity {
 		this.dropColor = dropColor;
 	}
 
+	public RenderState getRenderState() {
+		return render_state;
+	}
+
+	public void setRenderState(RenderState render_state) {
+		this.render_state = render_state;
+	}
+
 	public int getDupColorIndex() {
-		return dupColorIndex;
+		return core.getDupColorIndex(index);
 	}
 
 	public void setDupColorIndex(int sfColorIndex) {
-		this.dupColorIndex = sfColorIndex;
+		core.setDupColorIndex(index, sfColorIndex);
 	}
 
 	public List<Bioentity> getOriginalChildrenOrder() {
 		// Return a copy of the vector and not the original vector, else
 		// the information can be changed.
 		if (null == originalChildrenOrder) {
-			return null;
+			return core.getOriginalChildren(index);
 		}
 		List<Bioentity> copy = new ArrayList<Bioentity> (originalChildrenOrder.size());
 		copy.addAll(originalChildrenOrder);
@@ -626,6 +680,10 @@ public class DisplayBioentity extends Bioentity {
 		if (children == null) {
 			return;
 		}
+		if (core.recordChildOrder(index, children)) {
+			originalChildrenOrder = null;
+			return;
+		}
 		if (originalChildrenOrder == null) {
 			originalChildrenOrder = new ArrayList<Bioentity> ();
 		}
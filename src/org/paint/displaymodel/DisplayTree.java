@@ -23,14 +23,18 @@ package org.paint.displaymodel;
 import java.awt.Color;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.bbop.phylo.annotate.AnnotationUtil;
 import org.bbop.phylo.model.Tree;
+import org.paint.gui.AspectSelector;
 import org.paint.gui.event.EventManager;
 import org.paint.gui.event.NodeReorderEvent;
 import org.paint.main.PaintManager;
@@ -49,6 +53,44 @@ public class DisplayTree extends Tree implements Serializable {
 
 	private Bioentity currentRoot = null;
 
+	private static final int EXP_ANY = 1;
+	/*
+	 * For each node, whether any leaf in its clade has experimental evidence: EXP_ANY
+	 * for any aspect plus one bit for each aspect that does. Null until first needed.
+	 */
+	private transient Map<Bioentity, Integer> exp_clades;
+
+	/*
+	 * For constant time common ancestor and clade questions. Null until first needed.
+	 */
+	private transient LCAIndex lca_index;
+
+	private final transient TreeTraversal traversal = new TreeTraversal();
+
+	private final transient TreeTraversal.Visitor expander = new TreeTraversal.Visitor() {
+		@Override
+		public boolean enter(Bioentity node, int depth) {
+			if (!((DisplayBioentity) node).isExpanded()){
+				setNodeExpanded((DisplayBioentity) node);
+			}
+			return true;
+		}
+	};
+
+	/*
+	 * Closes each branch that has no experimental evidence and goes on down the ones that do
+	 */
+	private final transient TreeTraversal.Visitor collapser = new TreeTraversal.Visitor() {
+		@Override
+		public boolean enter(Bioentity node, int depth) {
+			if (!hasExperimentalEvidence(node)) {
+				((DisplayBioentity) node).setExpanded(false);
+				return false;
+			}
+			return true;
+		}
+	};
+
 	/**
 	 * Constructor declaration
 	 *
@@ -64,6 +106,8 @@ public class DisplayTree extends Tree implements Serializable {
 	public void growTree(Bioentity dsn) {
 		currentRoot = dsn;
 		super.growTree(dsn);
+		exp_clades = null;
+		lca_index = null;
 		DuplicationColor.inst().initColorIndex();
 		setDupColorIndex(currentRoot, 0);
 		setSubtreeColor((DisplayBioentity) root, Color.BLACK);
@@ -95,23 +139,14 @@ public class DisplayTree extends Tree implements Serializable {
 	 *
 	 * @see
 	 */
-	private void setSubtreeColor(Bioentity dsn, Color c){
-		if (null == dsn){
-			return;
-		}
-
-		// Set values for node
-		((DisplayBioentity) dsn).setSubFamilyColor(c);
-
-		// Set values for children
-		List<Bioentity>  children = dsn.getChildren();
-
-		if (null == children){
-			return;
-		}
-		for (Bioentity kid : children) {
-			setSubtreeColor(kid, c);
-		}
+	private void setSubtreeColor(Bioentity dsn, final Color c){
+		traversal.walk(dsn, new TreeTraversal.Visitor() {
+			@Override
+			public boolean enter(Bioentity node, int depth) {
+				((DisplayBioentity) node).setSubFamilyColor(c);
+				return true;
+			}
+		});
 	}
 
 	/**
@@ -123,16 +158,7 @@ public class DisplayTree extends Tree implements Serializable {
 	 * @see
 	 */
 	private void resetExpansion(Bioentity dsn){
-		if (!((DisplayBioentity) dsn).isExpanded()){
-			setNodeExpanded((DisplayBioentity) dsn);
-		}
-		List<Bioentity>  children = dsn.getChildren();
-
-		if (null != children){
-			for (Bioentity kid : children) {
-				resetExpansion(kid);
-			}
-		}
+		traversal.walk(dsn, expander);
 	}
 
 	/**
@@ -157,24 +183,102 @@ public class DisplayTree extends Tree implements Serializable {
 	}
 
 	private void collapseMRC(Bioentity mrc) {
-		List<Bioentity> twigList = new ArrayList<Bioentity>();
-		getLeafDescendants(mrc, twigList);
-		boolean no_exp = true;
-		for (int i = 0; i < twigList.size() && no_exp; i++) {
-			Bioentity check = twigList.get(i);
-			List<GeneAnnotation> exp_assoc = AnnotationUtil.getExperimentalAssociations(check);
-			no_exp &= (exp_assoc == null || exp_assoc.size() == 0);
+		traversal.walk(mrc, collapser);
+	}
+
+	/**
+	 * True if any leaf in the node's clade has experimental evidence
+	 */
+	public boolean hasExperimentalEvidence(Bioentity node) {
+		return (getExpClade(node) & EXP_ANY) != 0;
+	}
+
+	/**
+	 * True if any leaf in the node's clade has experimental evidence for the aspect
+	 */
+	public boolean hasExperimentalEvidence(Bioentity node, String aspect_code) {
+		return (getExpClade(node) & aspectBit(aspect_code)) != 0;
+	}
+
+	/**
+	 * Brings the experimental evidence flags up to date after an experimental annotation
+	 * to the given gene has been challenged or restored. Only its ancestors can be affected.
+	 */
+	public void experimentalChanged(Bioentity node) {
+		if (exp_clades == null) {
+			return;
 		}
-		if (no_exp) {
-			((DisplayBioentity) mrc).setExpanded(false);
-		} else {			
-			List<Bioentity> children = mrc.getChildren();
-			if (children != null) {
-				for (Bioentity child : children) {
-					collapseMRC(child);
+		if (node == null || !exp_clades.containsKey(node)) {
+			exp_clades = null;
+			return;
+		}
+		while (node != null) {
+			int bits = cladeExpBits(node);
+			Integer previous = exp_clades.put(node, bits);
+			if (previous != null && previous == bits) {
+				break;
+			}
+			node = node.getParent();
+		}
+	}
+
+	/**
+	 * Work the experimental evidence flags out again the next time they are asked for
+	 */
+	public void clearExperimental() {
+		exp_clades = null;
+	}
+
+	private int getExpClade(Bioentity node) {
+		if (exp_clades == null) {
+			exp_clades = new IdentityHashMap<Bioentity, Integer>();
+			/*
+			 * One pass with each node visited after its children,
+			 * so that every clade is only summed up from its children's flags
+			 */
+			traversal.walk(root, new TreeTraversal.Visitor() {
+				@Override
+				public void leave(Bioentity node, int depth) {
+					exp_clades.put(node, cladeExpBits(node));
 				}
+			});
+		}
+		Integer bits = exp_clades.get(node);
+		return bits != null ? bits : 0;
+	}
+
+	/*
+	 * A leaf's own experimental evidence, or what its children's clades have between them
+	 */
+	private int cladeExpBits(Bioentity node) {
+		int bits = 0;
+		List<Bioentity> children = node.getChildren();
+		if (node.isLeaf() || children == null) {
+			List<GeneAnnotation> exp_assoc = AnnotationUtil.getExperimentalAssociations(node);
+			if (exp_assoc != null) {
+				for (GeneAnnotation assoc : exp_assoc) {
+					bits |= EXP_ANY | aspectBit(assoc.getAspect());
+				}
+			}
+		} else {
+			for (Bioentity child : children) {
+				Integer child_bits = exp_clades.get(child);
+				if (child_bits != null) {
+					bits |= child_bits;
+				}
+			}
+		}
+		return bits;
+	}
+
+	private static int aspectBit(String aspect_code) {
+		String aspect_name = AspectSelector.inst().getAspectName4Code(aspect_code);
+		for (AspectSelector.Aspect aspect : AspectSelector.Aspect.values()) {
+			if (aspect.toString().equals(aspect_name)) {
+				return EXP_ANY << (aspect.ordinal() + 1);
 			}
 		}
+		return 0;
 	}
 
     public Bioentity getCurrentRoot(){
@@ -189,44 +293,152 @@ public class DisplayTree extends Tree implements Serializable {
 		EventManager.inst().fireNodeReorderEvent(event);
 	}
 
+	/*
+	 * Rebuilds the terminus nodes after a single node was collapsed, expanded or pruned.
+	 * Only the rows of that node's clade can have changed, so the views are told which ones.
+	 * This must be called before the terminus nodes are rebuilt by anything else.
+	 */
+	private void cladeReordered(Bioentity node) {
+		List<Bioentity> terminus_nodes = getTerminusNodes();
+		int first_row = firstRow(node);
+		if (first_row < 0) {
+			nodesReordered();
+			return;
+		}
+		int removed_rows = countRows(node, first_row);
+		int previous_size = terminus_nodes.size();
+		initCurrentNodes();
+		terminus_nodes = getTerminusNodes();
+		int added_rows = countRows(node, first_row);
+		NodeReorderEvent event = new NodeReorderEvent(this);
+		event.setNodes(terminus_nodes);
+		if (terminus_nodes.size() == previous_size - removed_rows + added_rows) {
+			event.setChangedRows(node, first_row, removed_rows, added_rows);
+		}
+		EventManager.inst().fireNodeReorderEvent(event);
+	}
+
+	/*
+	 * The row of the top-most terminus node in the clade, whether or not the clade is collapsed
+	 */
+	private int firstRow(Bioentity node) {
+		int row = PaintManager.inst().getRow(node);
+		while (row < 0 && node.getChildren() != null && !node.getChildren().isEmpty()) {
+			node = node.getChildren().get(0);
+			row = PaintManager.inst().getRow(node);
+		}
+		return row;
+	}
+
+	private int countRows(Bioentity clade, int first_row) {
+		List<Bioentity> terminus_nodes = getTerminusNodes();
+		int row = first_row;
+		while (row < terminus_nodes.size() && isInClade(terminus_nodes.get(row), clade)) {
+			row++;
+		}
+		return row - first_row;
+	}
+
+	/**
+	 * True if the node is the clade's root or one of its descendants
+	 */
+	public boolean isInClade(Bioentity node, Bioentity clade) {
+		LCAIndex index = getLCAIndex();
+		if (index.contains(node)) {
+			return index.isInClade(node, clade);
+		}
+		while (node != null && node != clade) {
+			node = node.getParent();
+		}
+		return node != null;
+	}
+
+	@Override
+	public Bioentity getMRCA(Bioentity gene1, Bioentity gene2) {
+		Bioentity mrca = getLCAIndex().getMRCA(gene1, gene2);
+		return mrca != null ? mrca : super.getMRCA(gene1, gene2);
+	}
+
+	/**
+	 * All the leaves in the clade from top to bottom, whether or not they are showing
+	 */
+	public List<Bioentity> getCladeLeaves(Bioentity clade) {
+		return getLCAIndex().getLeaves(clade);
+	}
+
+	private LCAIndex getLCAIndex() {
+		if (lca_index == null) {
+			lca_index = new LCAIndex(root);
+		}
+		return lca_index;
+	}
+
 	private void setDupColorIndex(Bioentity node, int color_index) {
 		((DisplayBioentity) node).setDupColorIndex(color_index);
-		if (!node.isLeaf()) {
+		traversal.walk(node, new DupColorVisitor());
+	}
+
+	/*
+	 * Each node is given its colour index by its parent before it is visited.
+	 * The children of a duplication that are not all leaves are visited in order of their
+	 * distance from it, and apart from the last each takes a new index, as do children
+	 * that are as far from the duplication as the next one is.
+	 */
+	private class DupColorVisitor extends TreeTraversal.Visitor {
+		private int [] color_index = new int[64];
+		private Object [] ordered = new Object[64];
+
+		@Override
+		public boolean enter(Bioentity node, int depth) {
+			if (depth == color_index.length) {
+				color_index = Arrays.copyOf(color_index, depth * 2);
+				ordered = Arrays.copyOf(ordered, depth * 2);
+			}
+			color_index[depth] = ((DisplayBioentity) node).getDupColorIndex();
+			ordered[depth] = null;
+			return !node.isLeaf();
+		}
+
+		@Override
+		public List<Bioentity> children(Bioentity node, int depth) {
 			List<Bioentity> children = node.getChildren();
 			if (node.isDuplication()) {
 				boolean only_leaves = true;
 				for (Bioentity child : children) {
-					only_leaves &= child.isLeaf();;
+					only_leaves &= child.isLeaf();
 				}
 				if (!only_leaves) {
 					List<Bioentity> ordered_by_distance = new ArrayList<Bioentity>();
 					ordered_by_distance.addAll(children);
-					Collections.sort(ordered_by_distance, new DistanceSort());				
-					for (Bioentity child : ordered_by_distance) {
-						int index = ordered_by_distance.indexOf(child);
-						if (index < ordered_by_distance.size() - 2) {
-							Bioentity sib = ordered_by_distance.get(index+1);
-							if (sib.getDistanceFromParent() == child.getDistanceFromParent()) {
-								color_index = DuplicationColor.inst().getNextIndex();
-								log.info(child.getId() + " and " + sib.getId() + " are equally distant from parent");
-							}
-						}
-						setDupColorIndex((DisplayBioentity)child, color_index);
-						if (ordered_by_distance.indexOf(child) < ordered_by_distance.size() - 1)
-							color_index = DuplicationColor.inst().getNextIndex();
-					}
-				}
-				else {
-					for (Bioentity child : children) {
-						setDupColorIndex((DisplayBioentity)child, color_index);
-					}
+					Collections.sort(ordered_by_distance, new DistanceSort());
+					ordered[depth] = ordered_by_distance;
+					return ordered_by_distance;
 				}
 			}
-			else {
-				for (Bioentity child : children) {
-					setDupColorIndex((DisplayBioentity)child, color_index);
+			return children;
+		}
+
+		@Override
+		public void beforeChild(Bioentity node, int depth, int index) {
+			@SuppressWarnings("unchecked")
+			List<Bioentity> ordered_by_distance = (List<Bioentity>) ordered[depth];
+			if (ordered_by_distance == null) {
+				((DisplayBioentity) node.getChildren().get(index)).setDupColorIndex(color_index[depth]);
+				return;
+			}
+			if (index > 0) {
+				// the previous child, and everything below it, is done
+				color_index[depth] = DuplicationColor.inst().getNextIndex();
+			}
+			Bioentity child = ordered_by_distance.get(index);
+			if (index < ordered_by_distance.size() - 2) {
+				Bioentity sib = ordered_by_distance.get(index+1);
+				if (sib.getDistanceFromParent() == child.getDistanceFromParent()) {
+					color_index[depth] = DuplicationColor.inst().getNextIndex();
+					log.info(child.getId() + " and " + sib.getId() + " are equally distant from parent");
 				}
 			}
+			((DisplayBioentity) child).setDupColorIndex(color_index[depth]);
 		}
 	}
 
@@ -246,7 +458,7 @@ public class DisplayTree extends Tree implements Serializable {
 		boolean change = (node != null && !node.isLeaf() && !node.isPruned());
 		if (change) {
 			setNodeExpanded(node);
-			nodesReordered();
+			cladeReordered(node);
 		}
 	}
 	
@@ -264,7 +476,7 @@ public class DisplayTree extends Tree implements Serializable {
 	public boolean handlePruning(DisplayBioentity node) {
 		boolean change = (node != null && !node.isLeaf());
 		if (change) {
-			nodesReordered();
+			cladeReordered(node);
 		}
 		return change;
 	}
@@ -292,6 +504,8 @@ public class DisplayTree extends Tree implements Serializable {
 		 */
 		Comparator<Bioentity> comp = new SpeciesSort();
 		ladder(currentRoot, comp);
+		// The ancestry is unchanged, but the index also holds the order of the leaves
+		lca_index = null;
 
 		/* 
 		 * Reinitialize the full list of nodes
@@ -308,6 +522,8 @@ public class DisplayTree extends Tree implements Serializable {
 		 */
 		Comparator<Bioentity> comp = new LeafCountSort(most_leaves_at_top);
 		ladder(currentRoot, comp);
+		// The ancestry is unchanged, but the index also holds the order of the leaves
+		lca_index = null;
 
 		/* 
 		 * Reinitialize the full list of nodes
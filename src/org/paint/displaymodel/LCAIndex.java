@@ -0,0 +1,201 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.displaymodel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import owltools.gaf.Bioentity;
+
+/**
+ * Answers most-recent-common-ancestor, ancestry and which-leaves-are-below questions about
+ * a tree in constant time, instead of walking up and down it for every selection.
+ *
+ * Nodes are numbered in the order a depth first search from the root reaches them, so each clade
+ * is a contiguous run of numbers. The search also records every node it passes through on the way
+ * down and back up (the Euler tour), and the common ancestor of two nodes is the shallowest node
+ * passed between reaching the first and reaching the second. The shallowest node in any stretch
+ * of the tour is read from a table of the shallowest in each stretch whose length is a power of two.
+ *
+ * The index covers the whole tree, whatever is collapsed, pruned or set as the current root,
+ * since none of those change which node descends from which.
+ */
+class LCAIndex {
+
+	private final Map<Bioentity, Integer> ids;
+	private final Bioentity [] nodes;
+	private final int [] depth;
+	/*
+	 * The highest number given to anything in each node's clade
+	 */
+	private final int [] clade_end;
+	/*
+	 * The leaves from top to bottom, and where each node's clade starts and stops in them
+	 */
+	private final List<Bioentity> leaves;
+	private final int [] leaf_start;
+	private final int [] leaf_end;
+
+	private final int [] first_visit;
+	private final int [][] shallowest;
+
+	LCAIndex(Bioentity root) {
+		int count = countNodes(root);
+		ids = new IdentityHashMap<Bioentity, Integer>(count * 2);
+		nodes = new Bioentity[count];
+		depth = new int[count];
+		clade_end = new int[count];
+		leaf_start = new int[count];
+		leaf_end = new int[count];
+		first_visit = new int[count];
+		Bioentity [] leaf_array = new Bioentity[count];
+		int [] tour = new int[Math.max(1, 2 * count - 1)];
+
+		/*
+		 * Depth first without recursion, keeping the path down to the current node
+		 * and how many children of each node on it have been gone through
+		 */
+		int [] path = new int[count];
+		int [] next_child = new int[count];
+		int path_length = 0;
+		int next_id = 0;
+		int tour_length = 0;
+		int leaf_count = 0;
+		Bioentity node = root;
+		while (node != null || path_length > 0) {
+			if (node != null) {
+				int id = next_id++;
+				ids.put(node, id);
+				nodes[id] = node;
+				depth[id] = path_length;
+				first_visit[id] = tour_length;
+				tour[tour_length++] = id;
+				leaf_start[id] = leaf_count;
+				List<Bioentity> children = node.getChildren();
+				if (children == null || children.isEmpty()) {
+					leaf_array[leaf_count++] = node;
+				}
+				path[path_length] = id;
+				next_child[path_length] = 0;
+				path_length++;
+				node = null;
+			} else {
+				int id = path[path_length - 1];
+				List<Bioentity> children = nodes[id].getChildren();
+				int child = next_child[path_length - 1]++;
+				if (children != null && child < children.size()) {
+					node = children.get(child);
+				} else {
+					clade_end[id] = next_id - 1;
+					leaf_end[id] = leaf_count;
+					path_length--;
+					if (path_length > 0) {
+						// back up at the parent before going down to its next child
+						tour[tour_length++] = path[path_length - 1];
+					}
+				}
+			}
+		}
+		leaves = Collections.unmodifiableList(Arrays.asList(leaf_array).subList(0, leaf_count));
+
+		int levels = 1;
+		while ((1 << levels) <= tour_length) {
+			levels++;
+		}
+		shallowest = new int[levels][];
+		shallowest[0] = Arrays.copyOf(tour, tour_length);
+		for (int level = 1; level < levels; level++) {
+			int half = 1 << (level - 1);
+			int [] below = shallowest[level - 1];
+			int [] row = new int[tour_length - (1 << level) + 1];
+			for (int i = 0; i < row.length; i++) {
+				int a = below[i];
+				int b = below[i + half];
+				row[i] = depth[a] <= depth[b] ? a : b;
+			}
+			shallowest[level] = row;
+		}
+	}
+
+	private static int countNodes(Bioentity root) {
+		final int [] count = new int[1];
+		new TreeTraversal().walk(root, new TreeTraversal.Visitor() {
+			@Override
+			public boolean enter(Bioentity node, int depth) {
+				count[0]++;
+				return true;
+			}
+		});
+		return count[0];
+	}
+
+	boolean contains(Bioentity node) {
+		return node != null && ids.containsKey(node);
+	}
+
+	/**
+	 * The most recent common ancestor of the two nodes, or null if either is not in the tree
+	 */
+	Bioentity getMRCA(Bioentity node1, Bioentity node2) {
+		Integer id1 = node1 != null ? ids.get(node1) : null;
+		Integer id2 = node2 != null ? ids.get(node2) : null;
+		if (id1 == null || id2 == null) {
+			return null;
+		}
+		int from = first_visit[id1];
+		int to = first_visit[id2];
+		if (from > to) {
+			int swap = from;
+			from = to;
+			to = swap;
+		}
+		int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		int a = shallowest[level][from];
+		int b = shallowest[level][to - (1 << level) + 1];
+		return nodes[depth[a] <= depth[b] ? a : b];
+	}
+
+	/**
+	 * True if the node is the clade's root or one of its descendants
+	 */
+	boolean isInClade(Bioentity node, Bioentity clade) {
+		Integer node_id = node != null ? ids.get(node) : null;
+		Integer clade_id = clade != null ? ids.get(clade) : null;
+		if (node_id == null || clade_id == null) {
+			return false;
+		}
+		return clade_id <= node_id && node_id <= clade_end[clade_id];
+	}
+
+	/**
+	 * The leaves of the clade from top to bottom, or an empty list if the node is not in the tree
+	 */
+	List<Bioentity> getLeaves(Bioentity clade) {
+		Integer id = clade != null ? ids.get(clade) : null;
+		if (id == null) {
+			return Collections.emptyList();
+		}
+		return leaves.subList(leaf_start[id], leaf_end[id]);
+	}
+}
@@ -0,0 +1,87 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.displaymodel;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+
+/**
+ * How a node is drawn for one aspect: whether it has experimental evidence, the colour
+ * its annotations give it, and its label. Working these out means searching the node's
+ * associations and building strings, which is too slow to repeat on every paint,
+ * so RenderUtil keeps one of these on each node until the annotations change.
+ */
+public class RenderState {
+
+	private final int generation;
+	private final String aspect_code;
+
+	private final boolean exp_evidence;
+	private final Color status_color;
+	private final String label;
+
+	private Font width_font;
+	private int label_width;
+
+	public RenderState(int generation, String aspect_code, boolean exp_evidence, Color status_color, String label) {
+		this.generation = generation;
+		this.aspect_code = aspect_code;
+		this.exp_evidence = exp_evidence;
+		this.status_color = status_color;
+		this.label = label;
+	}
+
+	public boolean isCurrent(int generation, String aspect_code) {
+		return this.generation == generation &&
+				(this.aspect_code == null ? aspect_code == null : this.aspect_code.equals(aspect_code));
+	}
+
+	public boolean hasExpEvidence() {
+		return exp_evidence;
+	}
+
+	/**
+	 * The colour for experimental, curated or inferred annotations,
+	 * or null if the node has no annotations to the aspect
+	 */
+	public Color getStatusColor() {
+		return status_color;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Width of the label in the font of the given metrics, remembered for the last font asked about
+	 */
+	public int getLabelWidth(FontMetrics fm) {
+		if (label == null) {
+			return 0;
+		}
+		if (width_font != fm.getFont()) {
+			width_font = fm.getFont();
+			label_width = fm.stringWidth(label);
+		}
+		return label_width;
+	}
+}
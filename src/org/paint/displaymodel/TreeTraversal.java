@@ -0,0 +1,140 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.displaymodel;
+
+import java.util.Arrays;
+import java.util.List;
+
+import owltools.gaf.Bioentity;
+
+/**
+ * Walks a tree depth first with a stack of its own rather than by recursion,
+ * since some families have subtrees deep enough to overflow the thread's stack.
+ *
+ * A Visitor hears about each node on the way down (pre-order), before going down
+ * to each of its children, and on the way back up (post-order). The stack is kept
+ * between walks, so a walk allocates nothing as long as its visitor doesn't either.
+ * Each caller keeps its own TreeTraversal and Visitor and uses them from one thread.
+ */
+public class TreeTraversal {
+
+	public static abstract class Visitor {
+
+		/**
+		 * Called on the way down, before any of the node's children
+		 *
+		 * @param depth - how far below the node the walk started at this one is
+		 * @return false to leave out the node's descendants
+		 */
+		public boolean enter(Bioentity node, int depth) {
+			return true;
+		}
+
+		/**
+		 * The children to go down to, and the order to take them in
+		 */
+		public List<Bioentity> children(Bioentity node, int depth) {
+			return node.getChildren();
+		}
+
+		/**
+		 * Called just before going down to each child in turn
+		 *
+		 * @param child - the position of the child in the list given by children()
+		 */
+		public void beforeChild(Bioentity node, int depth, int child) {
+		}
+
+		/**
+		 * Called on the way back up, after all the node's children, even if enter() returned false
+		 */
+		public void leave(Bioentity node, int depth) {
+		}
+	}
+
+	private static final int INITIAL_DEPTH = 64;
+
+	private Bioentity [] path = new Bioentity[INITIAL_DEPTH];
+	private Object [] path_children = new Object[INITIAL_DEPTH];
+	private int [] next_child = new int[INITIAL_DEPTH];
+	private boolean walking = false;
+
+	/**
+	 * Visits node and everything below it
+	 */
+	public void walk(Bioentity node, Visitor visitor) {
+		if (node == null) {
+			return;
+		}
+		if (walking) {
+			// the visitor has started another walk of its own
+			new TreeTraversal().walk(node, visitor);
+			return;
+		}
+		walking = true;
+		try {
+			int depth = 0;
+			if (!visitor.enter(node, 0)) {
+				visitor.leave(node, 0);
+				return;
+			}
+			push(node, 0, visitor);
+			depth = 1;
+			while (depth > 0) {
+				int top = depth - 1;
+				@SuppressWarnings("unchecked")
+				List<Bioentity> children = (List<Bioentity>) path_children[top];
+				int child = next_child[top];
+				if (children != null && child < children.size()) {
+					next_child[top] = child + 1;
+					visitor.beforeChild(path[top], top, child);
+					Bioentity kid = children.get(child);
+					if (visitor.enter(kid, depth)) {
+						push(kid, depth, visitor);
+						depth++;
+					} else {
+						visitor.leave(kid, depth);
+					}
+				} else {
+					Bioentity done = path[top];
+					path[top] = null;
+					path_children[top] = null;
+					depth--;
+					visitor.leave(done, top);
+				}
+			}
+		} finally {
+			walking = false;
+		}
+	}
+
+	private void push(Bioentity node, int depth, Visitor visitor) {
+		if (depth == path.length) {
+			int size = path.length * 2;
+			path = Arrays.copyOf(path, size);
+			path_children = Arrays.copyOf(path_children, size);
+			next_child = Arrays.copyOf(next_child, size);
+		}
+		path[depth] = node;
+		path_children[depth] = visitor.children(node, depth);
+		next_child[depth] = 0;
+	}
+}
@@ -298,7 +298,7 @@ ChallengeListener
 			 * is unavailable for display in the evidence/log panel.
 			 */
 			String aspect_name = AspectSelector.inst().getAspectName4Code(positive_annot.getAspect());
-			ChallengeEvent challenge_event = new ChallengeEvent(aspect_name);
+			ChallengeEvent challenge_event = new ChallengeEvent(aspect_name, positive_annot.getBioentityObject());
 			EventManager.inst().fireChallengeEvent(challenge_event);
 		}
 		return removed;
@@ -288,10 +288,14 @@ implements PaintTable {
 		 * 
 		 */
 		org.paint.gui.tree.TreePanel tree = PaintManager.inst().getTree();
-		List<Bioentity> leaf_list = new ArrayList<Bioentity>();
-		tree.getLeafDescendants(node, leaf_list);
-
 		List<GeneAnnotation> positive_annots = new ArrayList<>();
+		if (tree.getTreeModel() != null &&
+				!tree.getTreeModel().hasExperimentalEvidence(node, lost_assoc.getAspect())) {
+			// no leaf below has experimental evidence for this aspect, so nothing to look through
+			return positive_annots;
+		}
+		List<Bioentity> leaf_list = tree.getCladeLeaves(node);
+
 		for (Bioentity leaf : leaf_list) {
 			List<GeneAnnotation> leaf_assocs = AnnotationUtil.getExperimentalAssociations(leaf);
 			if (leaf_assocs != null) {
@@ -2,12 +2,31 @@ package org.paint.gui.event;
 
 import java.util.EventObject;
 
+import owltools.gaf.Bioentity;
+
 public class ChallengeEvent extends EventObject {
 
 	private static final long serialVersionUID = 1L;
 	
+	private Bioentity node;
+
 	public ChallengeEvent(Object source) {
 		super(source);
 	}
 
+	/**
+	 * @param node - the gene whose experimental annotation was challenged or restored
+	 */
+	public ChallengeEvent(Object source, Bioentity node) {
+		super(source);
+		this.node = node;
+	}
+
+	/**
+	 * The gene whose experimental annotation was challenged or restored, if known
+	 */
+	public Bioentity getNode() {
+		return node;
+	}
+
 }
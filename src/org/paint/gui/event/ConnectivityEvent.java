@@ -0,0 +1,19 @@
+package org.paint.gui.event;
+
+import java.util.EventObject;
+
+public class ConnectivityEvent extends EventObject {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean connected;
+
+	public ConnectivityEvent(Object source, boolean connected) {
+		super(source);
+		this.connected = connected;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+}
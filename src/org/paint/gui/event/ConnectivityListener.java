@@ -0,0 +1,9 @@
+package org.paint.gui.event;
+
+import java.util.EventListener;
+
+public interface ConnectivityListener extends EventListener {
+
+	public void handleConnectivityEvent(ConnectivityEvent event);
+
+}
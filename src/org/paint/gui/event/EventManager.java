@@ -36,6 +36,7 @@ import org.paint.gui.table.GeneTable;
 import org.paint.gui.table.GeneTableModel;
 import org.paint.gui.tree.TreePanel;
 import org.paint.main.PaintManager;
+import org.paint.util.RenderUtil;
 
 import owltools.gaf.Bioentity;
 import owltools.gaf.GeneAnnotation;
@@ -59,6 +60,7 @@ public class EventManager {
 	private Set<CurationColorListener> colorChangeListeners;
 	private Set<AnnotationDragListener> annotationDragListeners;
 	private Set<ChallengeListener> challenge_listeners;
+	private Set<ConnectivityListener> connectivity_listeners;
 
 	protected List<Bioentity> selectedNodes;
 	protected List<String> term_selection;
@@ -443,6 +445,11 @@ public class EventManager {
 	 * @param event - GeneAnnotationChangeEvent to fire
 	 */
 	public void fireAnnotationChangeEvent(AnnotationChangeEvent event) {
+		if (event.getSource() instanceof DisplayBioentity) {
+			RenderUtil.clearRenderState((DisplayBioentity) event.getSource());
+		} else {
+			RenderUtil.clearRenderState();
+		}
 		if (geneAnnotationChangeListeners != null) {
 			for (AnnotationChangeListener listener : geneAnnotationChangeListeners) {
 				listener.handleAnnotationChangeEvent(event);
@@ -457,6 +464,7 @@ public class EventManager {
 	 * @param event - AspectChangeEvent to fire
 	 */
 	public void fireAspectChangeEvent(AspectChangeEvent event) {
+		// the render state of each node is kept for one aspect, so it is brought up to date as it is drawn
 		if (aspectChangeListeners != null) {
 			for (AspectChangeListener listener : aspectChangeListeners) {
 				listener.handleAspectChangeEvent(event);
@@ -476,6 +484,7 @@ public class EventManager {
 	 * @param event - AspectChangeEvent to fire
 	 */
 	public void fireCurationColorEvent(CurationColorEvent event) {
+		RenderUtil.clearRenderState();
 		if (colorChangeListeners != null) {
 			for (CurationColorListener listener : colorChangeListeners) {
 				listener.handleCurationColorEvent(event);
@@ -559,6 +568,16 @@ public class EventManager {
 	 * Inform listeners that an experimental annotation has been challenged.
 	 */
 	public void fireChallengeEvent(ChallengeEvent event) {
+		// challenging evidence can remove inferences anywhere in the tree
+		RenderUtil.clearRenderState();
+		TreePanel tree_pane = PaintManager.inst().getTree();
+		if (tree_pane != null && tree_pane.getTreeModel() != null) {
+			if (event.getNode() != null) {
+				tree_pane.getTreeModel().experimentalChanged(event.getNode());
+			} else {
+				tree_pane.getTreeModel().clearExperimental();
+			}
+		}
 		if (challenge_listeners != null) {
 			for (ChallengeListener listener : challenge_listeners) {
 				listener.handleChallengeEvent(event);
@@ -566,4 +585,33 @@ public class EventManager {
 		}
 	}
 
+	/**
+	 * Components that depend on being able to reach the network
+	 * need to register themselves with the manager so that they will be notified
+	 * whenever the connection comes or goes.
+	 *
+	 * @param listener - ConnectivityListener to register for events
+	 */
+	public synchronized void registerConnectivityListener(ConnectivityListener listener) {
+		if (connectivity_listeners == null) 
+			connectivity_listeners = new HashSet<ConnectivityListener>();
+		if (!connectivity_listeners.contains(listener))
+			connectivity_listeners.add(listener);
+	}
+
+	/**
+	 * Inform listeners that the network connection has been lost or regained.
+	 */
+	public void fireConnectivityEvent(ConnectivityEvent event) {
+		List<ConnectivityListener> listeners;
+		synchronized (this) {
+			if (connectivity_listeners == null)
+				return;
+			listeners = new ArrayList<ConnectivityListener>(connectivity_listeners);
+		}
+		for (ConnectivityListener listener : listeners) {
+			listener.handleConnectivityEvent(event);
+		}
+	}
+
 }
@@ -20,6 +20,11 @@ public class NodeReorderEvent extends EventObject {
 	int action;
 	List<Bioentity> node_list;
 
+	Bioentity changed_node;
+	int first_row = -1;
+	int removed_rows;
+	int added_rows;
+
 	public NodeReorderEvent(Object source) {
 		super(source);
 	}
@@ -32,4 +37,39 @@ public class NodeReorderEvent extends EventObject {
 		this.node_list = node_list;
 	}
 
+	/**
+	 * Narrows the event down to a single clade that was collapsed, expanded or pruned:
+	 * from first_row on, removed_rows rows have been replaced by added_rows rows
+	 * and every row below them has moved by the difference.
+	 */
+	public void setChangedRows(Bioentity changed_node, int first_row, int removed_rows, int added_rows) {
+		this.changed_node = changed_node;
+		this.first_row = first_row;
+		this.removed_rows = removed_rows;
+		this.added_rows = added_rows;
+	}
+
+	/**
+	 * False if any row may have changed
+	 */
+	public boolean hasChangedRows() {
+		return first_row >= 0;
+	}
+
+	public Bioentity getChangedNode() {
+		return changed_node;
+	}
+
+	public int getFirstRow() {
+		return first_row;
+	}
+
+	public int getRemovedRows() {
+		return removed_rows;
+	}
+
+	public int getAddedRows() {
+		return added_rows;
+	}
+
 }
@@ -20,6 +20,8 @@ public class ProgressEvent extends EventObject {
 	private String message;
 	private int percentageDone;
 	private Status status;
+	private String stage;
+	private long elapsed = -1;
 	
 	public ProgressEvent(Object source, String message, int percentageDone) {
 		this(source, message, percentageDone, Status.RUNNING);
@@ -32,6 +34,15 @@ public class ProgressEvent extends EventObject {
 		this.status = status;
 	}
 
+	/**
+	 * Reports that one stage of a longer job has finished and how long it took
+	 */
+	public ProgressEvent(Object source, String message, int percentageDone, Status status, String stage, long elapsed) {
+		this(source, message, percentageDone, status);
+		this.stage = stage;
+		this.elapsed = elapsed;
+	}
+
 	public String getMessage() {
 		return message;
 	}
@@ -43,4 +54,15 @@ public class ProgressEvent extends EventObject {
 	public Status getStatus() {
 		return status;
 	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	/**
+	 * @return milliseconds taken by the stage, or -1 if this event is not a stage timing
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
 }
@@ -35,6 +35,7 @@ import org.bbop.phylo.util.OWLutil;
 import org.paint.config.CustomTermList;
 import org.paint.displaymodel.DisplayBioentity;
 import org.paint.gui.AspectSelector;
+import org.paint.main.PaintManager;
 
 import owltools.gaf.Bioentity;
 import owltools.gaf.GeneAnnotation;
@@ -448,6 +449,10 @@ public class AnnotMatrixModel extends AbstractTableModel {
 
 	public int getRow(Bioentity gene) {
 		try {
+			int row = PaintManager.inst().getRow(gene);
+			if (row >= 0 && row < nodes.size() && nodes.get(row) == gene) {
+				return row;
+			}
 			return nodes.indexOf(gene);
 		} catch (NullPointerException e) {
 			log.debug("Could not find gene " + gene.getSeqId() + " in contents");
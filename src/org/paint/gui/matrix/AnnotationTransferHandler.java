@@ -148,7 +148,7 @@ public class AnnotationTransferHandler extends TransferHandler {
 							drop_label = TaxonChecker.getTaxonError();
 					}
 				}
-				tree_panel.repaint();
+				tree_panel.repaintNode(node);
 			}
 
 			Point dropPoint = support.getDropLocation().getDropPoint();
@@ -163,11 +163,12 @@ public class AnnotationTransferHandler extends TransferHandler {
 
 	private void clearVisitedNodes(TreePanel tree) {
 		for (DisplayBioentity currentNode : visitedNodes) {
-			if (currentNode != null)
+			if (currentNode != null) {
 				currentNode.setDropColor(null);
-		}
-		if (tree != null) {
-			tree.repaint();
+				if (tree != null) {
+					tree.repaintNode(currentNode);
+				}
+			}
 		}
 		visitedNodes.clear();
 	}
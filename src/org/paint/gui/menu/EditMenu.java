@@ -130,7 +130,7 @@ ChallengeListener
 					(entry.getAction() == LogEntry.LOG_ENTRY_TYPE.NOT && entry.getRemovedAssociations() != null)) {
 				GeneAnnotation restore_annot = entry.getLoggedAssociation();
 				String aspect_name = AspectSelector.inst().getAspectName4Code(restore_annot.getAspect());
-				ChallengeEvent challenge_event = new ChallengeEvent(aspect_name);
+				ChallengeEvent challenge_event = new ChallengeEvent(aspect_name, restore_annot.getBioentityObject());
 				EventManager.inst().fireChallengeEvent(challenge_event);
 			}
 		}
@@ -151,8 +151,9 @@ ChallengeListener
 				 * Important to log the challenge first, otherwise it
 				 * is unavailable for display in the evidence/log panel.
 				 */
-				String aspect_name = AspectSelector.inst().getAspectName4Code(entry.getLoggedAssociation().getAspect());
-				ChallengeEvent challenge_event = new ChallengeEvent(aspect_name);
+				GeneAnnotation challenged_annot = entry.getLoggedAssociation();
+				String aspect_name = AspectSelector.inst().getAspectName4Code(challenged_annot.getAspect());
+				ChallengeEvent challenge_event = new ChallengeEvent(aspect_name, challenged_annot.getBioentityObject());
 				EventManager.inst().fireChallengeEvent(challenge_event);
 
 			}
@@ -29,6 +29,7 @@ import java.util.List;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
 import org.apache.log4j.Logger;
@@ -39,12 +40,14 @@ import org.paint.dialog.OpenNewFamily;
 import org.paint.gui.DirtyIndicator;
 import org.paint.gui.event.AnnotationChangeEvent;
 import org.paint.gui.event.AnnotationChangeListener;
+import org.paint.gui.event.ConnectivityEvent;
+import org.paint.gui.event.ConnectivityListener;
 import org.paint.gui.event.EventManager;
 import org.paint.main.PaintManager;
 import org.paint.util.InternetChecker;
 import org.paint.util.LoginUtil;
 
-public class FileMenu extends JMenu implements AnnotationChangeListener { // DynamicMenu {
+public class FileMenu extends JMenu implements AnnotationChangeListener, ConnectivityListener { // DynamicMenu {
 	/**
 	 * 
 	 */
@@ -86,12 +89,13 @@ public class FileMenu extends JMenu implements AnnotationChangeListener { // Dyn
 		updateMenu();
 
 		EventManager.inst().registerGeneAnnotationChangeListener(this);
+		EventManager.inst().registerConnectivityListener(this);
 
 		instances.add(this);
 	}
 
 	public void updateMenu() {
-		newFamItem.setEnabled(InternetChecker.getInstance().isConnectionPresent(true));
+		newFamItem.setEnabled(InternetChecker.getInstance().isConnectionPresent());
 
 		boolean family_loaded = DirtyIndicator.inst().familyLoaded();
 		saveFamItem.setEnabled(family_loaded);
@@ -145,6 +149,14 @@ public class FileMenu extends JMenu implements AnnotationChangeListener { // Dyn
 		updateMenu();
 	}
 
+	public void handleConnectivityEvent(ConnectivityEvent event) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				updateMenu();
+			}
+		});
+	}
+
 
 	/**
 	 * Class declaration
@@ -16,6 +16,8 @@ import org.bbop.framework.GUIManager;
 import org.bbop.swing.DynamicMenu;
 import org.paint.config.PaintConfig;
 import org.paint.dialog.ScaleTreeDlg;
+import org.paint.gui.event.ChallengeEvent;
+import org.paint.gui.event.ChallengeListener;
 import org.paint.gui.event.EventManager;
 import org.paint.gui.event.FamilyChangeEvent;
 import org.paint.gui.event.FamilyChangeListener;
@@ -25,7 +27,7 @@ import org.paint.gui.tree.TreePanel;
 import org.paint.main.PaintManager;
 
 public class TreeMenu extends DynamicMenu 
-implements FamilyChangeListener, NodeReorderListener {
+implements FamilyChangeListener, NodeReorderListener, ChallengeListener {
 	/**
 	 * 
 	 */
@@ -103,6 +105,7 @@ implements FamilyChangeListener, NodeReorderListener {
 
 		EventManager.inst().registerFamilyListener(this);
 		EventManager.inst().registerNodeReorderListener(this);
+		EventManager.inst().registerChallengeListener(this);
 	}
 
 	/**
@@ -215,10 +218,29 @@ implements FamilyChangeListener, NodeReorderListener {
 
 	public void newFamilyData(FamilyChangeEvent e) {
 		species_order.setSelected(true);		
+		updateCollapseItem();
 	}
 
 	public void handleNodeReorderEvent(NodeReorderEvent e) {
 		collapseNonExpNodesItem.setSelected(PaintConfig.inst().collapse_no_exp);
+		updateCollapseItem();
+	}
+
+	public void handleChallengeEvent(ChallengeEvent event) {
+		updateCollapseItem();
+	}
+
+	/*
+	 * Collapsing branches without experimental data is only offered if some gene has any,
+	 * otherwise it would leave nothing but the root
+	 */
+	private void updateCollapseItem() {
+		TreePanel tree = PaintManager.inst().getTree();
+		boolean has_exp = true;
+		if (tree != null && tree.getTreeModel() != null && tree.getRoot() != null) {
+			has_exp = tree.getTreeModel().hasExperimentalEvidence(tree.getRoot());
+		}
+		collapseNonExpNodesItem.setEnabled(has_exp || collapseNonExpNodesItem.isSelected());
 	}
 
 }
@@ -1,36 +1,129 @@
 package org.paint.gui.msa;
 
-import java.util.HashMap;
-import java.util.Set;
-
 import org.apache.log4j.Logger;
 
 
+/**
+ * How often each residue occurs in each column of the alignment, both as a plain count
+ * and summed over the sequence weights. The table is filled one sequence at a time,
+ * so the alignment is read in a single pass in the order it is stored.
+ */
 public class AminoAcidStats {
-	protected HashMap<String, Double> aaFrequency;
-	
+
+	/*
+	 * Residues are counted by their position in this alphabet: the upper case letters,
+	 * then the lower case letters (insert states in the HMM alignment), then the gaps and anything else.
+	 */
+	private static final int LETTERS = 26;
+	private static final int DASH = 2 * LETTERS;
+	private static final int DOT = DASH + 1;
+	private static final int SPACE = DOT + 1;
+	private static final int OTHER = SPACE + 1;
+	public static final int ALPHABET_SIZE = OTHER + 1;
+
+	private static final byte [] symbol_index = new byte[128];
+	static {
+		for (int i = 0; i < symbol_index.length; i++) {
+			char c = (char) i;
+			if (c >= 'A' && c <= 'Z') {
+				symbol_index[i] = (byte) (c - 'A');
+			} else if (c >= 'a' && c <= 'z') {
+				symbol_index[i] = (byte) (LETTERS + c - 'a');
+			} else if (c == '-') {
+				symbol_index[i] = DASH;
+			} else if (c == '.') {
+				symbol_index[i] = DOT;
+			} else if (c == ' ') {
+				symbol_index[i] = SPACE;
+			} else {
+				symbol_index[i] = OTHER;
+			}
+		}
+	}
+
+	protected int [][] counts;
+	protected float [][] weights;
+
 	protected static Logger log = Logger.getLogger(AminoAcidStats.class);
 
-	public AminoAcidStats () {
-		aaFrequency = null;
+	public AminoAcidStats (int columns) {
+		counts = new int[columns][ALPHABET_SIZE];
+		weights = new float[columns][ALPHABET_SIZE];
+	}
+
+	public static int symbolIndex(char aa) {
+		return aa < symbol_index.length ? symbol_index[aa] : OTHER;
+	}
+
+	public int getColumns() {
+		return counts.length;
+	}
+
+	/**
+	 * Adds the residues of one aligned sequence to their columns
+	 */
+	public void addSequence(String sequence, double weight) {
+		addSequence(sequence, weight, 0, counts.length);
+	}
+
+	/**
+	 * Adds the residues of one aligned sequence that fall in the columns from up to (but not including) to
+	 */
+	void addSequence(String sequence, double weight, int from, int to) {
+		int length = Math.min(sequence.length(), to);
+		float wt = (float) weight;
+		for (int column = from; column < length; column++) {
+			int aa = symbolIndex(sequence.charAt(column));
+			counts[column][aa]++;
+			weights[column][aa] += wt;
+		}
+	}
+
+	public int getAACount(int column, char aa) {
+		return counts[column][symbolIndex(aa)];
+	}
+
+	public double getAAWeight(int column, char aa) {
+		return weights[column][symbolIndex(aa)];
 	}
 
-	public double getAAFrequency(char aa) {
-		String aa_str = String.valueOf(aa);
-		if (aaFrequency != null && aaFrequency.get(aa_str) != null)
-			return aaFrequency.get(aa_str).doubleValue();
-		else
-			return 0;
+	public double getAAFrequency(int column, char aa, boolean weighted) {
+		return weighted ? getAAWeight(column, aa) : getAACount(column, aa);
 	}
 
-	public void setAAFrequency(char aa, double frequency) {
-		String aa_str = String.valueOf(aa);
-		if (this.aaFrequency == null)
-			this.aaFrequency = new HashMap<String, Double> ();
-		this.aaFrequency.put(aa_str, Double.valueOf(frequency));
+	/**
+	 * Works out, for every residue in every column, which threshold its share of the column is over.
+	 *
+	 * @param total what the counts or weights are a share of
+	 * @return by column and then by symbol index, 0 if no threshold is passed, otherwise 1 + the first threshold passed
+	 */
+	public byte [][] getConservationLevels(float [] threshold, boolean weighted, double total) {
+		byte [][] levels = new byte[counts.length][ALPHABET_SIZE];
+		getConservationLevels(levels, threshold, weighted, total, 0, counts.length);
+		return levels;
 	}
 
-	public Set<String> getAAs() {
-		return aaFrequency.keySet();
+	/**
+	 * Fills in the conservation levels of the columns from up to (but not including) to
+	 */
+	void getConservationLevels(byte [][] levels, float [] threshold, boolean weighted, double total, int from, int to) {
+		for (int column = from; column < to; column++) {
+			int [] column_counts = counts[column];
+			float [] column_weights = weights[column];
+			byte [] column_levels = levels[column];
+			for (int aa = 0; aa < ALPHABET_SIZE; aa++) {
+				double frequency = weighted ? column_weights[aa] : column_counts[aa];
+				if (frequency == 0) {
+					continue;
+				}
+				double percent = (frequency * 100) / total;
+				for (int k = 0; k < threshold.length; k++) {
+					if (percent > threshold[k]) {
+						column_levels[aa] = (byte) (k + 1);
+						break;
+					}
+				}
+			}
+		}
 	}
 }
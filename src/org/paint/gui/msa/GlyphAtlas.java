@@ -0,0 +1,121 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.paint.gui.msa;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The residue letters drawn once, plain and bold, into one image that each cell of the
+ * alignment then copies its letter from. Copying a few pixels is far cheaper than laying
+ * out a one character string. The letters are always black, whatever color the cell is
+ * filled with, so they are drawn onto a transparent background.
+ */
+class GlyphAtlas {
+
+	private static final char FIRST = '!';
+	private static final char LAST = '~';
+
+	private final Font font;
+	private final Font bold_font;
+	private final int cell_width;
+	private final int cell_height;
+	private final int baseline;
+
+	private final BufferedImage atlas;
+
+	/**
+	 * @param baseline how far below the top of a cell the letters sit
+	 */
+	GlyphAtlas(Graphics g, Font font, Font bold_font, int cell_width, int cell_height, int baseline) {
+		this.font = font;
+		this.bold_font = bold_font;
+		this.cell_width = cell_width;
+		this.cell_height = cell_height;
+		this.baseline = baseline;
+
+		int width = (LAST - FIRST + 1) * cell_width;
+		int height = 2 * cell_height;
+		GraphicsConfiguration gc = (g instanceof Graphics2D ? ((Graphics2D) g).getDeviceConfiguration() : null);
+		atlas = (gc != null ?
+				gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT) :
+					new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+		Graphics2D atlas_g = atlas.createGraphics();
+		try {
+			if (g instanceof Graphics2D) {
+				Object aa = ((Graphics2D) g).getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+				if (aa != null) {
+					atlas_g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, aa);
+				}
+			}
+			atlas_g.setColor(Color.black);
+			char [] glyph = new char[1];
+			for (int style = 0; style < 2; style++) {
+				atlas_g.setFont(style == 0 ? font : bold_font);
+				for (char c = FIRST; c <= LAST; c++) {
+					int x = (c - FIRST) * cell_width;
+					int y = style * cell_height;
+					atlas_g.setClip(x, y, cell_width, cell_height);
+					glyph[0] = c;
+					atlas_g.drawChars(glyph, 0, 1, x, y + baseline);
+				}
+			}
+		} finally {
+			atlas_g.dispose();
+		}
+	}
+
+	/**
+	 * Whether the atlas was drawn for cells of this size and font
+	 */
+	boolean fits(Font font, int cell_width, int cell_height, int baseline) {
+		return this.font.equals(font) && this.cell_width == cell_width
+				&& this.cell_height == cell_height && this.baseline == baseline;
+	}
+
+	int getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * Draws the letter into the cell whose top left corner is at x, y
+	 */
+	void drawGlyph(Graphics g, char c, boolean bold, int x, int y) {
+		if (c == ' ') {
+			return;
+		}
+		if (c < FIRST || c > LAST) {
+			// Not in the atlas, so draw it the slow way
+			g.setColor(Color.black);
+			g.setFont(bold ? bold_font : font);
+			g.drawChars(new char [] { c }, 0, 1, x, y + baseline);
+			return;
+		}
+		int sx = (c - FIRST) * cell_width;
+		int sy = bold ? cell_height : 0;
+		g.drawImage(atlas, x, y, x + cell_width, y + cell_height, sx, sy, sx + cell_width, sy + cell_height, null);
+	}
+}
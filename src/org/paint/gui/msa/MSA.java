@@ -24,7 +24,7 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -46,8 +46,20 @@ public class MSA {
 
 	private boolean have_weights;
 
-	/* by row and then by column */
-	private Hashtable<DisplayBioentity, Color[]> nodeToColor = new Hashtable<DisplayBioentity, Color[]>();
+	/*
+	 * The color of each residue as an index into the palette, by row and then by column.
+	 * A Color per residue would cost a reference each, which for large families runs to hundreds of megabytes.
+	 */
+	private byte [] color_matrix;
+	private int color_rows;
+	private int color_columns;
+	/* rows with nothing to color, such as ancestral nodes when the alignment is weighted */
+	private boolean [] uncolored_rows;
+
+	/* the background first, followed by the color for each threshold */
+	private Color [] palette;
+
+	private static final byte BACKGROUND = 0;
 
 	private static final String              msaFont = "Monospaced";          // Has to be fixed width font
 
@@ -55,7 +67,11 @@ public class MSA {
 
 	private boolean colors_initialized = false;
 	private Font          font;
-	private AminoAcidStats[] aminoAcidStats;
+	private Font          bold_font;
+	private GlyphAtlas    glyphs;
+	private AminoAcidStats aminoAcidStats;
+	/* the aligned sequence of each row when the columns were last counted */
+	private String [] row_sequences;
 
 	private int selectedCol = -1;               // Selected column
 
@@ -98,6 +114,7 @@ public class MSA {
 	 */
 	protected void setFont(Font f){
 		font = f;
+		bold_font = new Font(msaFont, Font.BOLD, f.getSize());
 	}
 
 	protected void updateColors() {
@@ -187,13 +204,18 @@ public class MSA {
 
 		g.setColor(Color.black);
 
-		seq_range = setSeqRange(viewport, charWidth, aminoAcidStats.length);
+		seq_range = setSeqRange(viewport, charWidth, aminoAcidStats.getColumns());
 		int seq_x_position = viewport.x; // + seq_range[0] * charWidth + 1;
 
+		GlyphAtlas atlas = getGlyphAtlas(g, charWidth, row_height, row_height - topInset - 1);
+		int start = seq_range[START_BASE];
+		int end = seq_range[END_BASE];
+
 		int column_x = seq_x_position;
 		char [] ruler = MSAParser.inst().getRuler(PaintConfig.inst().full_msa);
-		for (int column = seq_range[START_BASE]; column < seq_range[END_BASE]; column++) {
-			g.drawChars(ruler, column, 1, column_x, header_y);
+		int ruler_y = header_y - atlas.getBaseline();
+		for (int column = start; column < end && column < ruler.length; column++) {
+			atlas.drawGlyph(g, ruler[column], false, column_x, ruler_y);
 			column_x += charWidth;
 		}
 
@@ -214,8 +236,7 @@ public class MSA {
 				continue;
 			}
 
-			Color nodeColors[] = nodeToColor.get(node);
-			if (null == nodeColors) {
+			if (row >= color_rows || uncolored_rows[row]) {
 				curHeight += row_height;
 				continue;
 			}
@@ -225,36 +246,55 @@ public class MSA {
 				continue;
 			}
 
-			Font f;
-			if (node.isSelected()) {
-				f = new Font(msaFont, Font.BOLD, font.getSize());
-			}
-			else {
-				f = font;
+			// Neighbouring cells of the same color are filled as one rectangle
+			int row_offset = row * color_columns;
+			int colored_length = Math.min(seq.length(), color_columns);
+			Color run_color = null;
+			int run_start = start;
+			for (int column = start; column <= end; column++) {
+				Color color;
+				if (column == end) {
+					// closes off the last run
+					color = null;
+				} else if (column == selectedCol) {
+					color = Color.pink;
+				} else if (column < colored_length) {
+					color = palette[color_matrix[row_offset + column]];
+				} else {
+					color = palette[BACKGROUND];
+				}
+				if (color != run_color) {
+					if (run_color != null) {
+						g.setColor(run_color);
+						g.fillRect(seq_x_position + (run_start - start) * charWidth, curHeight,
+								(column - run_start) * charWidth, row_height);
+					}
+					run_color = color;
+					run_start = column;
+				}
 			}
 
+			boolean bold = node.isSelected();
 			column_x = seq_x_position;
-			int seq_y = curHeight + row_height - topInset - 1;
-			char [] seq_chars = seq.toCharArray();
-			for (int column = seq_range[START_BASE]; column < seq_range[END_BASE]; column++) {
-				Color color = nodeColors[column];
-				if (column == selectedCol) {
-					g.setColor(Color.pink);
-					g.fillRect(column_x, curHeight, charWidth, row_height);
-				}
-				else {
-					g.setColor(color);
-					g.fillRect(column_x, curHeight, charWidth, row_height);
-				}
-				g.setColor(Color.black);
-				g.setFont(f);
-				g.drawChars(seq_chars, column, 1, column_x, seq_y);
+			int glyph_end = Math.min(end, seq.length());
+			for (int column = start; column < glyph_end; column++) {
+				atlas.drawGlyph(g, seq.charAt(column), bold, column_x, curHeight);
 				column_x += charWidth;
 			}
 			curHeight += row_height;
 		}
 	}
 
+	/**
+	 * The letters are drawn into a new atlas only when the font or the size of a cell changes
+	 */
+	private GlyphAtlas getGlyphAtlas(Graphics g, int charWidth, int row_height, int baseline) {
+		if (glyphs == null || !glyphs.fits(font, charWidth, row_height, baseline)) {
+			glyphs = new GlyphAtlas(g, font, bold_font, charWidth, row_height, baseline);
+		}
+		return glyphs;
+	}
+
 	/**
 	 * Method declaration
 	 *
@@ -289,7 +329,7 @@ public class MSA {
 		if (colors_initialized)
 			return;
 
-		double totalWt = initColumnWeights(isWeighted());
+		double totalWt = initColumnWeights();
 		if (isWeighted()) {
 			colors_initialized = setWeightedColor(totalWt);
 		} else {
@@ -298,79 +338,63 @@ public class MSA {
 	}
 
 	private boolean setUnweightedColor() {
-		nodeToColor.clear();
 		Color colors [] = PaintConfig.inst().getMSAColors(false);
 		float threshold [] = PaintConfig.inst().getMSAThresholds(false);
-		List<Bioentity> nodes = PaintManager.inst().getRows();
-		int row_count = nodes != null ? nodes.size() : 0;
+		int row_count = row_sequences.length;
+		initColorMatrix(row_count, colors);
 		for (int row = 0; row < row_count; row++) {
-			DisplayBioentity node = (DisplayBioentity) nodes.get(row);
-			String  seq = (PaintConfig.inst().full_msa ? node.getSequence() : node.getHMMSeq());
-			int seqLength;
-			Color [] columnColors = null;
-			if (seq == null) {
-				seqLength = -1;
-			} else {
-				seqLength = seq.length();
-				columnColors = new Color[seqLength];
-			}
-			for (int column = 0; column < seqLength; column++) {
-				columnColors[column] = Color.WHITE;
-				char c = seq.charAt(column);
-				if (c != '.' && c != '-' && c != ' ') {
-					AminoAcidStats alignStats = aminoAcidStats[column];
-					double frequency = alignStats.getAAFrequency(c);
-					// calculate percentage in this column with same aa
-					double weight = (frequency * 100) / row_count;
-					for (int k = 0; k < threshold.length; k++) {
-						if (weight > threshold[k]) {
-							columnColors[column] = colors[k];
-							break;
-						}
-					}
-
-				}
-			}
-			nodeToColor.put(node, columnColors);
+			uncolored_rows[row] = row_sequences[row] == null;
 		}
+		// calculate percentage in each column with the same aa
+		MSAColoring.color(color_matrix, color_columns, row_sequences, aminoAcidStats,
+				threshold, false, row_count, MSAColoring.getPool());
 		return true;
 	}
 
 	private boolean setWeightedColor(double totalWt) {
-		nodeToColor.clear();
 		Color colors [] = PaintConfig.inst().getMSAColors(true);
 		float threshold [] = PaintConfig.inst().getMSAThresholds(true);
 		List<Bioentity> nodes = PaintManager.inst().getRows();
-		for (int row = 0; nodes != null && row < nodes.size(); row++) {
-			DisplayBioentity node = (DisplayBioentity) nodes.get(row);
-			String  seq = PaintConfig.inst().full_msa ? node.getSequence() : node.getHMMSeq();
-			if (!node.isTerminus() || seq == null)
-				continue;
-
-			int seqLength = seq.length();
-			Color []columnColors = new Color[seqLength];
-			for (int column = 0; column < seqLength; column++) {
-				columnColors[column] = Color.WHITE;
-				char c = seq.charAt(column);
-				if (c != '-' && c != '.') {
-					// Get total weight of chars that count
-					AminoAcidStats alignStats = aminoAcidStats[column];
-					double weight = alignStats.getAAFrequency(c);
-					double percent = 0;
-					percent = (weight / totalWt) * 100;
-					for (int k = 0; k < threshold.length; k++) {
-						if (percent > threshold[k]) {
-							columnColors[column] = colors[k];
-							break;
-						}
-					}
-				}
+		int row_count = row_sequences.length;
+		initColorMatrix(row_count, colors);
+		String [] colored = new String[row_count];
+		for (int row = 0; row < row_count; row++) {
+			if (row_sequences[row] == null || !nodes.get(row).isTerminus()) {
+				uncolored_rows[row] = true;
+			} else {
+				colored[row] = row_sequences[row];
 			}
-			nodeToColor.put(node, columnColors);
 		}
+		// percentage of the total weight of chars that count
+		MSAColoring.color(color_matrix, color_columns, colored, aminoAcidStats,
+				threshold, true, totalWt, MSAColoring.getPool());
 		return true;
 	}
 
+	/**
+	 * Clears the matrix back to the background for the given number of rows,
+	 * reusing the previous one unless it is too small or much too large
+	 */
+	private void initColorMatrix(int row_count, Color [] colors) {
+		palette = new Color[colors.length + 1];
+		palette[BACKGROUND] = Color.WHITE;
+		System.arraycopy(colors, 0, palette, 1, colors.length);
+
+		color_rows = row_count;
+		color_columns = MSAParser.inst().getSeqLength(PaintConfig.inst().full_msa);
+		int cells = row_count * color_columns;
+		if (color_matrix == null || color_matrix.length < cells || color_matrix.length > cells * 2) {
+			color_matrix = new byte[cells];
+		} else {
+			Arrays.fill(color_matrix, 0, cells, BACKGROUND);
+		}
+		if (uncolored_rows == null || uncolored_rows.length < row_count) {
+			uncolored_rows = new boolean[row_count];
+		} else {
+			Arrays.fill(uncolored_rows, 0, row_count, false);
+		}
+	}
+
 	protected void setSelectedColInfo(Point p, Graphics g) {
 		if (null == g) {
 			return;
@@ -423,8 +447,7 @@ public class MSA {
 			int max_row = -1;
 			List<Bioentity> nodes = PaintManager.inst().getRows();
 			if (nodes != null) {
-				for (Bioentity node : nodes) {
-					int row = nodes.indexOf(node);
+				for (int row = 0; row < nodes.size(); row++) {
 					if (min_row < 0 || row < min_row) {
 						min_row = row;						
 					}
@@ -450,47 +473,32 @@ public class MSA {
 	}
 
 	/**
-	 * Saves information about the counts at each position of the sequence
+	 * Saves information about the counts at each position of the sequence, both plain and weighted.
+	 * Blocks of columns are counted in parallel when PaintConfig.msa_threads allows.
 	 */
-	private double initColumnWeights(boolean weighted) {
+	private double initColumnWeights() {
 
 		int seq_length = MSAParser.inst().getSeqLength(PaintConfig.inst().full_msa);
-		/* this keeps the overall totals for each count of an AA in a column */
-		aminoAcidStats = new AminoAcidStats[seq_length];
 
 		// Calculate total weight of sequences for all nodes
 		double totalWt = 0;
-		// This use to start at one, trying with 0 instead, no need to skip first node
-		for (int column = 0; column < seq_length; column++){
-			AminoAcidStats alignStats = aminoAcidStats[column];
-			if (alignStats == null) {
-				alignStats = new AminoAcidStats();
-				aminoAcidStats[column] = alignStats;
-			}
-			List<Bioentity> nodes = PaintManager.inst().getRows();
-			if (nodes != null) {
-				for (Bioentity node : nodes) {
-					if (column == 0)
-						totalWt += ((DisplayBioentity) node).getSequenceWt();
-					/*
-					 * this is the aligned sequence, with dashes inserted, so all of them are the same length
-					 * and so we don't have to worry about which column we are counting
-					 */
-					String  sequence = (PaintConfig.inst().full_msa ? ((DisplayBioentity) node).getSequence() : ((DisplayBioentity) node).getHMMSeq());
-					if (sequence == null) {
-						continue;
-					}
-					char aa = sequence.charAt(column);
-					double align_frequency = alignStats.getAAFrequency(aa);
-					if (weighted) {
-						align_frequency += ((DisplayBioentity) node).getSequenceWt();
-					} else {
-						align_frequency++;
-					}
-					alignStats.setAAFrequency(aa, align_frequency);
-				}
-			}
+		boolean full_msa = PaintConfig.inst().full_msa;
+		List<Bioentity> nodes = PaintManager.inst().getRows();
+		int row_count = nodes != null ? nodes.size() : 0;
+		row_sequences = new String[row_count];
+		double [] row_weights = new double[row_count];
+		for (int row = 0; row < row_count; row++) {
+			DisplayBioentity node = (DisplayBioentity) nodes.get(row);
+			row_weights[row] = node.getSequenceWt();
+			totalWt += row_weights[row];
+			/*
+			 * this is the aligned sequence, with dashes inserted, so all of them are the same length
+			 * and so we don't have to worry about which column we are counting
+			 */
+			row_sequences[row] = (full_msa ? node.getSequence() : node.getHMMSeq());
 		}
+		/* this keeps the overall totals for each count of an AA in a column */
+		aminoAcidStats = MSAColoring.countColumns(row_sequences, row_weights, seq_length, MSAColoring.getPool());
 		return totalWt;
 	}
 
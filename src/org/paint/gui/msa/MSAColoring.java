@@ -0,0 +1,228 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.paint.gui.msa;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.paint.config.PaintConfig;
+
+/**
+ * Counts the residues in each column of the alignment and colors each cell, a block of columns at a time.
+ *
+ * A cell's color depends only on its own column, so the blocks can be worked on in parallel.
+ * The result is exactly the same as on a single thread: each column's counts and weights
+ * are still summed over the rows in row order, whichever thread does the column.
+ */
+public class MSAColoring {
+
+	/* fewer columns (or rows) than this are not worth handing to another thread */
+	private static final int MIN_BLOCK = 32;
+	/* blocks per thread, so that threads which finish early can take over the remaining work */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * The pool to color with, sized by PaintConfig.msa_threads, or null to color on the calling thread
+	 */
+	static synchronized ForkJoinPool getPool() {
+		int threads = PaintConfig.inst().msa_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if (threads <= 1) {
+			return null;
+		}
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * @param sequences the aligned sequence of each row, null for rows without one
+	 * @param weights the weight of each row's sequence
+	 */
+	static AminoAcidStats countColumns(final String [] sequences, final double [] weights, int columns, ForkJoinPool pool) {
+		final AminoAcidStats stats = new AminoAcidStats(columns);
+		forEachBlock(columns, pool, new Block() {
+			void run(int from, int to) {
+				for (int row = 0; row < sequences.length; row++) {
+					String sequence = sequences[row];
+					if (sequence != null) {
+						stats.addSequence(sequence, weights[row], from, to);
+					}
+				}
+			}
+		});
+		return stats;
+	}
+
+	/**
+	 * Sets each residue in the matrix to the palette index of its conservation level.
+	 * Gaps, and rows whose sequence is null, are left as they are.
+	 *
+	 * @param matrix the palette indexes, by row and then by column
+	 * @param total what the counts or weights are a share of
+	 */
+	static void color(final byte [] matrix, final int columns, final String [] sequences, final AminoAcidStats stats,
+			final float [] threshold, final boolean weighted, final double total, ForkJoinPool pool) {
+		final byte [][] levels = new byte[columns][AminoAcidStats.ALPHABET_SIZE];
+		forEachBlock(columns, pool, new Block() {
+			void run(int from, int to) {
+				stats.getConservationLevels(levels, threshold, weighted, total, from, to);
+				for (int row = 0; row < sequences.length; row++) {
+					String seq = sequences[row];
+					if (seq == null) {
+						continue;
+					}
+					int row_offset = row * columns;
+					int end = Math.min(seq.length(), to);
+					for (int column = from; column < end; column++) {
+						char c = seq.charAt(column);
+						// blanks only count as gaps when the residues are not weighted
+						if (c != '.' && c != '-' && (weighted || c != ' ')) {
+							matrix[row_offset + column] = levels[column][AminoAcidStats.symbolIndex(c)];
+						}
+					}
+				}
+			}
+		});
+	}
+
+	static abstract class Block {
+		/**
+		 * Does the columns (or rows) from up to (but not including) to
+		 */
+		abstract void run(int from, int to);
+	}
+
+	/**
+	 * Splits 0 up to size into blocks and runs them on the pool, or all at once on the
+	 * calling thread if the pool is null. Returns when every block has been done.
+	 */
+	static void forEachBlock(int size, ForkJoinPool pool, Block block) {
+		if (pool == null || size <= MIN_BLOCK) {
+			block.run(0, size);
+			return;
+		}
+		int blocks = pool.getParallelism() * BLOCKS_PER_THREAD;
+		int block_size = Math.max(MIN_BLOCK, (size + blocks - 1) / blocks);
+		pool.invoke(new BlockTask(block, 0, size, block_size));
+	}
+
+	private static class BlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Block block;
+		private final int from;
+		private final int to;
+		private final int block_size;
+
+		BlockTask(Block block, int from, int to, int block_size) {
+			this.block = block;
+			this.from = from;
+			this.to = to;
+			this.block_size = block_size;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= block_size) {
+				block.run(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BlockTask(block, from, middle, block_size),
+						new BlockTask(block, middle, to, block_size));
+			}
+		}
+	}
+
+	/**
+	 * Colors a made up alignment on one thread and in parallel, and checks that
+	 * every cell comes out the same. The alignment is generated from the seed given
+	 * as the first argument, so a failure can be repeated.
+	 */
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 20101;
+		int rows = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		int columns = args.length > 2 ? Integer.parseInt(args[2]) : 1200;
+
+		Random random = new Random(seed);
+		String residues = "ACDEFGHIKLMNPQRSTVWYXacdefghiklmnpqrstvwy-. *";
+		char [] conserved = new char[columns];
+		for (int column = 0; column < columns; column++) {
+			conserved[column] = residues.charAt(random.nextInt(residues.length()));
+		}
+		String [] sequences = new String[rows];
+		double [] weights = new double[rows];
+		double total_wt = 0;
+		for (int row = 0; row < rows; row++) {
+			weights[row] = random.nextDouble() / rows;
+			total_wt += weights[row];
+			if (random.nextInt(20) == 0) {
+				continue;
+			}
+			char [] seq = new char[columns];
+			for (int column = 0; column < columns; column++) {
+				seq[column] = random.nextInt(10) < 7 ? conserved[column] : residues.charAt(random.nextInt(residues.length()));
+			}
+			sequences[row] = new String(seq);
+		}
+
+		float [] threshold = { 80f, 60f, 40f };
+		float [] weighted_threshold = { 90f, 75f };
+		ForkJoinPool parallel = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		boolean agree = true;
+		for (boolean weighted : new boolean [] { false, true }) {
+			float [] levels = weighted ? weighted_threshold : threshold;
+			double total = weighted ? total_wt : rows;
+
+			long start = System.nanoTime();
+			AminoAcidStats stats = countColumns(sequences, weights, columns, null);
+			byte [] serial = new byte[rows * columns];
+			color(serial, columns, sequences, stats, levels, weighted, total, null);
+			long serial_time = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			stats = countColumns(sequences, weights, columns, parallel);
+			byte [] forked = new byte[rows * columns];
+			color(forked, columns, sequences, stats, levels, weighted, total, parallel);
+			long parallel_time = System.nanoTime() - start;
+
+			boolean same = Arrays.equals(serial, forked);
+			agree &= same;
+			System.out.println((weighted ? "weighted" : "unweighted") + ": "
+					+ (same ? "same colors" : "COLORS DIFFER")
+					+ ", serial " + serial_time / 1000000 + "ms, "
+					+ parallel.getParallelism() + " threads " + parallel_time / 1000000 + "ms");
+		}
+		parallel.shutdown();
+		if (!agree) {
+			System.exit(1);
+		}
+	}
+}
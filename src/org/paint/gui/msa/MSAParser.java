@@ -44,6 +44,8 @@ public class MSAParser{
 	private char [] full_ruler;
 	private char [] condense_ruler;		
 
+	private static final int ELIDED = -1;
+
 	private static MSAParser INSTANCE = null;
 
 	/**
@@ -182,30 +184,55 @@ public class MSAParser{
 		return weighted;
 	}
 
+	/**
+	 * Finds the columns where some row has an amino acid of significance (a match state or a deletion).
+	 * The rows are read one at a time, and each only at the columns no earlier row was found to need.
+	 */
+	private boolean [] findNeededColumns(List<Bioentity> nodes) {
+		boolean [] needed = new boolean[seq_length];
+		int [] unknown = new int[seq_length];
+		int unknown_count = seq_length;
+		for (int i = 0; i < seq_length; i++) {
+			unknown[i] = i;
+		}
+		for (int i = 0; i < nodes.size() && unknown_count > 0; i++) {
+			String sequence = ((DisplayBioentity) nodes.get(i)).getSequence();
+			if (sequence == null) {
+				continue;
+			}
+			int still_unknown = 0;
+			for (int k = 0; k < unknown_count; k++) {
+				int seq_position = unknown[k];
+				char c = seq_position < sequence.length() ? sequence.charAt(seq_position) : '.';
+				if (((c >= 'A') && (c <= 'Z')) || (c == '-')) {
+					needed[seq_position] = true;
+				} else {
+					unknown[still_unknown++] = seq_position;
+				}
+			}
+			unknown_count = still_unknown;
+		}
+		return needed;
+	}
+
 	private char [] setCondensedSequences(List<Bioentity> nodes) {
 		int gap_size = 0;
 		boolean column_needed;
 		StringBuffer ruler = new StringBuffer();
 
+		boolean [] needed = findNeededColumns(nodes);
+		/*
+		 * Which column of the full alignment each position of the condensed one comes from,
+		 * or ELIDED where a long stretch of unneeded columns is replaced by dots
+		 */
+		int [] source = new int[seq_length];
+		int condensed_length = 0;
+
 		/* 
 		 * Working through the primary sequence one column (amino acid) at a time
 		 */
 		for (int seq_position = 0; seq_position < seq_length; seq_position++) {
-			column_needed = false;
-			/*
-			 * Find out whether there is any amino acid of significance at this column position
-			 * among all the rows 
-			 */
-			for (int i = 0; i < nodes.size() && !column_needed; i++) {
-				DisplayBioentity node = (DisplayBioentity) nodes.get(i);
-				if (node.getSequence() != null) {
-					String sequence = node.getSequence();
-					char  c = sequence.charAt(seq_position);
-					if (((c >= 'A') && (c <= 'Z')) || (c == '-')) {
-						column_needed = true;
-					}
-				}
-			}
+			column_needed = needed[seq_position];
 			if (column_needed) {
 				gap_size = 0;
 			} else {
@@ -256,49 +283,55 @@ public class MSAParser{
 			}
 
 			/* 
-			 * Now go through every row (gene) and see what they have at this position
+			 * Now record what every row (gene) will have at this position
 			 */
-			for (Bioentity node : nodes) {
-				DisplayBioentity protein = (DisplayBioentity) node;
-				switch (gap_size) {
-				case 0:
-				case 1:
-				case 2:
-				case 3:
-				case 4:
-				case 5:
-					String sequence = protein.getSequence();
-					char  c = sequence.charAt(seq_position);
-					if (protein.getHMMSeq() == null) {
-						protein.setHMMSeq(String.valueOf(c));
-					} else {
-						protein.setHMMSeq(protein.getHMMSeq() + c);
-					}
-					break;
-				default:
-					// assuming the gap length never goes beyond 10K
-					String condensed = protein.getHMMSeq();
-					//					if (condensed.charAt(ruler.length() - 1) != '.') {
-					/*
-					 * If just leaving good stuff then need to put the ending position in the ruler
-					 */
-					int pos = ruler.length() - 5;
-					condensed = condensed.substring(0, pos) + ".....";
-					protein.setHMMSeq(condensed);
-					//					}
+			if (gap_size < 6) {
+				source[condensed_length++] = seq_position;
+			} else {
+				/*
+				 * If just leaving good stuff then the last 5 columns become dots
+				 */
+				for (int pos = Math.max(0, condensed_length - 5); pos < condensed_length; pos++) {
+					source[pos] = ELIDED;
 				}
 			}
 		}
 
-		hmm_length = 0;
-		for (Bioentity node : nodes) {
-			DisplayBioentity protein = (DisplayBioentity) node;
-			if (protein.getHMMSeq().length() > hmm_length)
-				hmm_length = protein.getHMMSeq().length();
-		}
+		buildCondensedSequences(nodes, source, condensed_length);
+		hmm_length = nodes.isEmpty() ? 0 : condensed_length;
 		condense_ruler = new char [ruler.length()];
 		for (int i = 0; i < ruler.length(); i++)
 			condense_ruler[i] = ruler.charAt(i);
 		return condense_ruler;
 	}
+
+	/**
+	 * Copies the columns that make up the condensed view out of each row's sequence.
+	 * Each row is built on its own, so the rows of long alignments are split across the MSA threads.
+	 */
+	private void buildCondensedSequences(final List<Bioentity> nodes, final int [] source, final int condensed_length) {
+		MSAColoring.forEachBlock(nodes.size(), MSAColoring.getPool(), new MSAColoring.Block() {
+			void run(int from, int to) {
+				char [] condensed = new char[condensed_length];
+				for (int i = from; i < to; i++) {
+					DisplayBioentity protein = (DisplayBioentity) nodes.get(i);
+					String sequence = protein.getSequence();
+					if (sequence == null) {
+						continue;
+					}
+					for (int pos = 0; pos < condensed_length; pos++) {
+						int seq_position = source[pos];
+						if (seq_position == ELIDED) {
+							condensed[pos] = '.';
+						} else if (seq_position < sequence.length()) {
+							condensed[pos] = sequence.charAt(seq_position);
+						} else {
+							condensed[pos] = '-';
+						}
+					}
+					protein.setHMMSeq(new String(condensed));
+				}
+			}
+		});
+	}
 }
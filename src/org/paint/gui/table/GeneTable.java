@@ -343,8 +343,16 @@ AspectChangeListener {
 
 	public void handleNodeReorderEvent(NodeReorderEvent e) {
 		GeneTableModel model = (GeneTableModel) this.getModel();
-		model.reorderRows(e.getNodes());
-		model.fireTableDataChanged();
+		List<Bioentity> rows = e.getNodes();
+		int first_row = e.getFirstRow();
+		if (e.hasChangedRows() &&
+				model.getRowCount() - e.getRemovedRows() + e.getAddedRows() == rows.size() &&
+				first_row + e.getRemovedRows() <= model.getRowCount()) {
+			model.replaceRows(first_row, e.getRemovedRows(), rows.subList(first_row, first_row + e.getAddedRows()));
+		} else {
+			model.reorderRows(rows);
+			model.fireTableDataChanged();
+		}
 	}
 
 	public void handleAspectChangeEvent(AspectChangeEvent event) {
@@ -26,6 +26,7 @@ import org.apache.log4j.Logger;
 import org.paint.displaymodel.DisplayBioentity;
 import org.paint.gui.event.EventManager;
 import org.paint.gui.event.ProgressEvent;
+import org.paint.main.PaintManager;
 
 import owltools.gaf.Bioentity;
 
@@ -79,6 +80,21 @@ public class GeneTableModel extends AbstractGeneTableModel {
 		contents.addAll(node_list);
 	}
 
+	/**
+	 * Replaces removed_rows rows, starting at first_row, with the given rows
+	 * and tells the table about just those rows
+	 */
+	public void replaceRows(int first_row, int removed_rows, List<Bioentity> added) {
+		if (removed_rows > 0) {
+			contents.subList(first_row, first_row + removed_rows).clear();
+			fireTableRowsDeleted(first_row, first_row + removed_rows - 1);
+		}
+		if (!added.isEmpty()) {
+			contents.addAll(first_row, added);
+			fireTableRowsInserted(first_row, first_row + added.size() - 1);
+		}
+	}
+
 	public int getColumnCount() {
 		return column_headings.length;
 	}
@@ -182,6 +198,11 @@ public class GeneTableModel extends AbstractGeneTableModel {
 
 	public int getRow(Bioentity dsn) {
 		try {
+			// the rows are the tree's terminus nodes, so the tree's row index normally has the answer
+			int row = PaintManager.inst().getRow(dsn);
+			if (row >= 0 && row < contents.size() && contents.elementAt(row) == dsn) {
+				return row;
+			}
 			return contents.indexOf(dsn);
 		} catch (NullPointerException e) {
 			System.out.println("Could not find gene " + dsn.getDBID() + " in contents");
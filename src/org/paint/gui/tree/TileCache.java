@@ -0,0 +1,113 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.gui.tree;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Already rendered strips of the tree, so that scrolling only has to copy images
+ * instead of drawing every glyph, label and leader line again.
+ *
+ * Each tile is a horizontal band TILE_HEIGHT pixels tall spanning the width of the panel.
+ * The whole cache is dropped whenever its key (the layout, aspect and colours it was drawn with)
+ * or the panel width changes, while a change to a few nodes only drops the tiles they touch.
+ * Only the most recently used tiles are kept, as many as fit in MAX_BYTES at the current width.
+ */
+class TileCache {
+
+	static final int TILE_HEIGHT = 256;
+	/* what the tiles may take together, 4 bytes (ARGB) per pixel */
+	private static final long MAX_BYTES = 32L * 1024 * 1024;
+	/* kept whatever the width, enough to cover a screen */
+	private static final int MIN_TILES = 4;
+
+	private final LinkedHashMap<Integer, BufferedImage> tiles;
+	private Object key;
+	private int width;
+	private int max_tiles = MIN_TILES;
+
+	TileCache() {
+		tiles = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+				return size() > max_tiles;
+			}
+		};
+	}
+
+	/**
+	 * Drops every tile unless they were drawn for the same key and width
+	 */
+	void validate(Object key, int width) {
+		if (this.width != width || this.key == null || !this.key.equals(key)) {
+			tiles.clear();
+			this.key = key;
+			this.width = width;
+			long tile_bytes = 4L * Math.max(1, width) * TILE_HEIGHT;
+			max_tiles = (int) Math.max(MIN_TILES, MAX_BYTES / tile_bytes);
+		}
+	}
+
+	BufferedImage get(int tile) {
+		return tiles.get(tile);
+	}
+
+	void put(int tile, BufferedImage image) {
+		tiles.put(tile, image);
+	}
+
+	/**
+	 * Drops the tiles overlapping the area
+	 */
+	void invalidate(Rectangle area) {
+		invalidate(area.y, area.y + area.height);
+	}
+
+	void invalidate(int top, int bottom) {
+		int first = tileAt(top);
+		int last = tileAt(bottom);
+		for (Iterator<Integer> it = tiles.keySet().iterator(); it.hasNext(); ) {
+			int tile = it.next();
+			if (tile >= first && tile <= last) {
+				it.remove();
+			}
+		}
+	}
+
+	void clear() {
+		tiles.clear();
+	}
+
+	static int tileAt(int y) {
+		// rounds down for negative y too
+		return y >= 0 ? y / TILE_HEIGHT : -1 - ((-1 - y) / TILE_HEIGHT);
+	}
+
+	static Rectangle getBounds(int tile, int width) {
+		return new Rectangle(0, tile * TILE_HEIGHT, width, TILE_HEIGHT);
+	}
+}
@@ -0,0 +1,521 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.paint.gui.tree;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.JTable;
+
+import org.paint.displaymodel.DisplayBioentity;
+import org.paint.displaymodel.DisplayTree;
+import org.paint.displaymodel.TreeTraversal;
+import org.paint.util.GuiConstant;
+import org.paint.util.RenderUtil;
+
+import owltools.gaf.Bioentity;
+
+/**
+ * Works out where every node of the tree goes on screen.
+ *
+ * The terminus nodes are indexed by row once per layout, so a leaf finds its row
+ * in constant time rather than by searching the list of leaves, and the width of
+ * each label is only measured the first time it is seen.
+ * The row index is shared with the gene table, MSA and annotation matrix,
+ * which show one row per terminus node.
+ *
+ * When a single clade is collapsed, expanded or pruned only that clade is laid out again.
+ * Everything below it just moves up or down, and the nodes above it only need
+ * their vertical position re-centred.
+ *
+ * Finding the node under the mouse uses the visible nodes bucketed by their vertical
+ * position, rebuilt after each layout, rather than a search of the whole tree.
+ */
+public class TreeLayout {
+
+	private DisplayTree tree;
+	private List<Bioentity> terminus_nodes;
+	private final Map<Bioentity, Integer> rows;
+	private boolean rows_current;
+	/*
+	 * Where each node's branch starts and how deep it is, so that a clade
+	 * can be laid out again without starting from the root
+	 */
+	private final Map<Bioentity, float []> origins;
+
+	private Font measured_font;
+	private FontMetrics metrics;
+
+	private final Rectangle tree_rect;
+
+	private final TreeTraversal traversal = new TreeTraversal();
+	private final Positioner positioner = new Positioner();
+	private final TreeTraversal.Visitor forgetter = new TreeTraversal.Visitor() {
+		@Override
+		public boolean enter(Bioentity node, int depth) {
+			rows.remove(node);
+			return true;
+		}
+	};
+
+	/*
+	 * Visible nodes in the order a search from the root would come across them,
+	 * and for each band of bucket_height pixels the nodes that overlap it
+	 */
+	private DisplayBioentity [] hit_nodes;
+	private int [][] hit_buckets;
+	private int hit_top;
+	private int bucket_height;
+	private Bioentity hit_root;
+
+	public TreeLayout() {
+		rows = new IdentityHashMap<Bioentity, Integer>();
+		origins = new IdentityHashMap<Bioentity, float []>();
+		tree_rect = new Rectangle(0, 0, 0, 0);
+	}
+
+	public void setTree(DisplayTree tree) {
+		this.tree = tree;
+		terminus_nodes = null;
+		rows.clear();
+		origins.clear();
+		rows_current = false;
+	}
+
+	/**
+	 * The terminus nodes are about to change, because of a collapse, a reroot or laddering
+	 */
+	public void invalidate() {
+		rows_current = false;
+	}
+
+	/**
+	 * Positions every node below current_root
+	 *
+	 * @param row_table the table holding one row per terminus node, the leaves line up with its rows
+	 * @param top_margin space above the first row
+	 * @return the area covered by the tree
+	 */
+	public Rectangle layout(Bioentity current_root, Graphics g, JTable row_table, int top_margin,
+			int row_height, boolean use_distances, double scale) {
+		tree_rect.setBounds(0, 0, 0, 0);
+		if (tree == null || current_root == null) {
+			return tree_rect;
+		}
+		indexRows();
+		origins.clear();
+		hit_root = null;
+		int x = TreePanel.LEFTMARGIN + getNodeWidth(g, current_root);
+		setNodeRectangle(current_root, g, row_table, top_margin, row_height, x, 0, use_distances, scale);
+		return measureTree();
+	}
+
+	/**
+	 * Updates the layout after the clade under node has been collapsed, expanded or pruned.
+	 * From first_row on, removed_rows rows were replaced by added_rows rows.
+	 *
+	 * @return null if the clade was not part of the last layout, which then has to be redone in full
+	 */
+	public Rectangle relayout(Bioentity node, int first_row, int removed_rows, int added_rows,
+			Bioentity current_root, Graphics g, JTable row_table, int top_margin,
+			int row_height, boolean use_distances, double scale) {
+		float [] origin = origins.get(node);
+		List<Bioentity> current = tree != null ? tree.getTerminusNodes() : null;
+		if (origin == null || current == null || first_row + added_rows > current.size()) {
+			return null;
+		}
+		/*
+		 * Bring the row index up to date, the rows above the clade keep their numbers
+		 */
+		forgetClade(node);
+		hit_root = null;
+		terminus_nodes = current;
+		for (int row = first_row; row < terminus_nodes.size(); row++) {
+			rows.put(terminus_nodes.get(row), row);
+		}
+		rows_current = true;
+
+		setNodeRectangle(node, g, row_table, top_margin, row_height, origin[0], origin[1], use_distances, scale);
+
+		Set<Bioentity> ancestors = Collections.newSetFromMap(new IdentityHashMap<Bioentity, Boolean>());
+		for (Bioentity ancestor = node; ancestor != null && ancestor != current_root.getParent(); ancestor = ancestor.getParent()) {
+			ancestors.add(ancestor);
+		}
+
+		/*
+		 * Everything wholly below the clade moves by the same amount
+		 */
+		int shift = (added_rows - removed_rows) * row_height;
+		if (shift != 0) {
+			Set<Bioentity> moved = Collections.newSetFromMap(new IdentityHashMap<Bioentity, Boolean>());
+			for (int row = first_row + added_rows; row < terminus_nodes.size(); row++) {
+				Bioentity below = terminus_nodes.get(row);
+				while (below != null && !ancestors.contains(below) && moved.add(below)) {
+					moveDown((DisplayBioentity) below, shift);
+					below = below.getParent();
+				}
+			}
+		}
+
+		/*
+		 * and the clade's ancestors are centred on their children again
+		 */
+		for (Bioentity ancestor = node.getParent(); ancestor != null && ancestors.contains(ancestor); ancestor = ancestor.getParent()) {
+			centre((DisplayBioentity) ancestor, row_height);
+		}
+		return measureTree();
+	}
+
+	private void forgetClade(Bioentity node) {
+		traversal.walk(node, forgetter);
+	}
+
+	private void moveDown(DisplayBioentity node, int shift) {
+		Rectangle r = node.getScreenRectangle();
+		if (r != null) {
+			// note that setNodeArea takes the height before the width
+			node.setNodeArea(r.x, r.y + shift, r.height, r.width);
+			node.setCladeExtent(node.getCladeTop() + shift, node.getCladeBottom() + shift);
+		}
+	}
+
+	/*
+	 * The vertical span of the node and whatever is visible beneath it,
+	 * once its children have been placed
+	 */
+	private void setCladeExtent(DisplayBioentity node) {
+		Rectangle r = node.getScreenRectangle();
+		int top = r.y;
+		int bottom = r.y + r.height;
+		List<Bioentity> children = node.getChildren();
+		if (!node.isTerminus() && children != null) {
+			for (Bioentity kid : children) {
+				DisplayBioentity child = (DisplayBioentity) kid;
+				top = Math.min(top, child.getCladeTop());
+				bottom = Math.max(bottom, child.getCladeBottom());
+			}
+		}
+		node.setCladeExtent(top, bottom);
+	}
+
+	private void centre(DisplayBioentity node, int row_height) {
+		int top_y = -1;
+		int bottom_y = -1;
+		List<Bioentity> children = node.getChildren();
+		if (children != null) {
+			for (Bioentity child : children) {
+				Rectangle r = ((DisplayBioentity) child).getScreenRectangle();
+				int child_y = r.y + (r.height / 2);
+				if (top_y < 0 || child_y < top_y)
+					top_y = child_y;
+				if (bottom_y < 0 || child_y > bottom_y)
+					bottom_y = child_y;
+			}
+		}
+		Rectangle r = node.getScreenRectangle();
+		node.setNodeArea(r.x, ((top_y + bottom_y) / 2) - (row_height / 2), r.height, r.width);
+		setCladeExtent(node);
+	}
+
+	private Rectangle measureTree() {
+		tree_rect.setBounds(0, 0, 0, 0);
+		if (!terminus_nodes.isEmpty()) {
+			DisplayBioentity bottom_node = (DisplayBioentity) terminus_nodes.get(terminus_nodes.size() - 1);
+			tree_rect.height = bottom_node.getScreenRectangle().y;
+		}
+		for (Bioentity leaf : terminus_nodes) {
+			// the width was measured when the leaf was positioned
+			Rectangle leaf_rect = ((DisplayBioentity) leaf).getScreenRectangle();
+			if (tree_rect.width < leaf_rect.x + leaf_rect.width) {
+				tree_rect.width = leaf_rect.x + leaf_rect.width;
+			}
+		}
+		return tree_rect;
+	}
+
+	public Rectangle getTreeRect() {
+		return tree_rect;
+	}
+
+	/**
+	 * @return the visible node whose area contains the point, or null if there is none.
+	 * Where areas overlap the node nearest the root wins, as it would in a search of the tree.
+	 */
+	public DisplayBioentity getNodeAt(Point p, Bioentity current_root) {
+		if (current_root == null) {
+			return null;
+		}
+		if (hit_root != current_root) {
+			indexHits(current_root);
+		}
+		if (p.y < hit_top) {
+			return null;
+		}
+		int bucket = (p.y - hit_top) / bucket_height;
+		if (bucket >= hit_buckets.length) {
+			return null;
+		}
+		for (int index : hit_buckets[bucket]) {
+			// each bucket is in search order, so the first hit is the one wanted
+			if (hit_nodes[index].getScreenRectangle().contains(p)) {
+				return hit_nodes[index];
+			}
+		}
+		return null;
+	}
+
+	public void invalidateHits() {
+		hit_root = null;
+	}
+
+	private void indexHits(Bioentity current_root) {
+		List<DisplayBioentity> visible = new ArrayList<DisplayBioentity>();
+		collectVisible((DisplayBioentity) current_root, visible);
+		hit_nodes = visible.toArray(new DisplayBioentity[visible.size()]);
+
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		int tallest = 1;
+		for (DisplayBioentity node : hit_nodes) {
+			Rectangle r = node.getScreenRectangle();
+			top = Math.min(top, r.y);
+			bottom = Math.max(bottom, r.y + r.height);
+			tallest = Math.max(tallest, r.height);
+		}
+		hit_top = hit_nodes.length > 0 ? top : 0;
+		bucket_height = tallest;
+		int bucket_count = hit_nodes.length > 0 ? (bottom - top) / bucket_height + 1 : 0;
+
+		// count first so each bucket can be an exact size array
+		int [] sizes = new int[bucket_count];
+		for (DisplayBioentity node : hit_nodes) {
+			Rectangle r = node.getScreenRectangle();
+			for (int b = firstBucket(r); b <= lastBucket(r); b++) {
+				sizes[b]++;
+			}
+		}
+		hit_buckets = new int[bucket_count][];
+		for (int b = 0; b < bucket_count; b++) {
+			hit_buckets[b] = new int[sizes[b]];
+			sizes[b] = 0;
+		}
+		for (int index = 0; index < hit_nodes.length; index++) {
+			Rectangle r = hit_nodes[index].getScreenRectangle();
+			for (int b = firstBucket(r); b <= lastBucket(r); b++) {
+				hit_buckets[b][sizes[b]++] = index;
+			}
+		}
+		hit_root = current_root;
+	}
+
+	private int firstBucket(Rectangle r) {
+		return (r.y - hit_top) / bucket_height;
+	}
+
+	private int lastBucket(Rectangle r) {
+		return (r.y + Math.max(0, r.height - 1) - hit_top) / bucket_height;
+	}
+
+	private void collectVisible(DisplayBioentity node, final List<DisplayBioentity> visible) {
+		traversal.walk(node, new TreeTraversal.Visitor() {
+			@Override
+			public boolean enter(Bioentity dot, int depth) {
+				DisplayBioentity child = (DisplayBioentity) dot;
+				if (child.getScreenRectangle() == null) {
+					return false;
+				}
+				visible.add(child);
+				return !child.isTerminus();
+			}
+		});
+	}
+
+	/**
+	 * @return the row the node is shown in, or -1 if it is not a visible terminus node
+	 */
+	public int getRow(Bioentity node) {
+		if (tree == null || node == null) {
+			return -1;
+		}
+		Integer row = rows.get(node);
+		if (!rows_current || (row != null && terminus_nodes.get(row) != node)
+				|| terminus_nodes.size() != rows.size()) {
+			indexRows();
+			row = rows.get(node);
+		}
+		return row != null ? row : -1;
+	}
+
+	private void indexRows() {
+		List<Bioentity> current = tree.getTerminusNodes();
+		if (rows_current && current == terminus_nodes && current.size() == rows.size()) {
+			return;
+		}
+		terminus_nodes = current;
+		rows.clear();
+		int row = 0;
+		for (Bioentity leaf : terminus_nodes) {
+			rows.put(leaf, row++);
+		}
+		rows_current = true;
+	}
+
+	private void setNodeRectangle(Bioentity dot, Graphics g, JTable row_table, int top_margin, int row_height,
+			float base_x, float tree_depth, boolean use_distances, double scale) {
+		positioner.g = g;
+		positioner.row_table = row_table;
+		positioner.top_margin = top_margin;
+		positioner.row_height = row_height;
+		positioner.base_x = base_x;
+		positioner.tree_depth = tree_depth;
+		positioner.use_distances = use_distances;
+		positioner.scale = scale;
+		try {
+			traversal.walk(dot, positioner);
+		} finally {
+			positioner.g = null;
+			positioner.row_table = null;
+		}
+	}
+
+	/*
+	 * Places each node to the right of its parent on the way down the tree, and on the way back up
+	 * puts the terminus nodes level with their rows and centres the others on their children
+	 */
+	private class Positioner extends TreeTraversal.Visitor {
+		private Graphics g;
+		private JTable row_table;
+		private int top_margin;
+		private int row_height;
+		private float base_x;
+		private float tree_depth;
+		private boolean use_distances;
+		private double scale;
+
+		/*
+		 * For each node on the path down: where its children start and how far up and down they reach
+		 */
+		private float [] child_base = new float[64];
+		private int [] x_spot = new int[64];
+		private int [] width = new int[64];
+		private int [] top_y = new int[64];
+		private int [] bottom_y = new int[64];
+
+		@Override
+		public boolean enter(Bioentity dot, int depth) {
+			if (depth == child_base.length) {
+				int size = depth * 2;
+				child_base = Arrays.copyOf(child_base, size);
+				x_spot = Arrays.copyOf(x_spot, size);
+				width = Arrays.copyOf(width, size);
+				top_y = Arrays.copyOf(top_y, size);
+				bottom_y = Arrays.copyOf(bottom_y, size);
+			}
+			DisplayBioentity node = (DisplayBioentity) dot;
+			float node_base = depth == 0 ? base_x : child_base[depth - 1];
+			float node_depth = tree_depth + depth;
+			origins.put(node, new float [] {node_base, node_depth});
+			/*
+			 * Calculate the left-right x position first
+			 */
+			float f;
+			if (!use_distances) {
+				f = (float) (node_base + (node_depth * scale));
+			} else {
+				f = (float) (node_base + (Math.abs(node.getDistanceFromParent()) * scale));
+			}
+			x_spot[depth] = (int) f;
+			width[depth] = getNodeWidth(g, node);
+			child_base[depth] = f + width[depth];
+			top_y[depth] = -1;
+			bottom_y[depth] = -1;
+			return !node.isTerminus();
+		}
+
+		@Override
+		public void leave(Bioentity dot, int depth) {
+			DisplayBioentity node = (DisplayBioentity) dot;
+			/*
+			 * Then calculate vertical y position
+			 */
+			int y;
+			if (node.isTerminus()) {
+				Integer row = rows.get(node);
+				Rectangle position = row_table.getCellRect(row != null ? row : -1, 0, false);
+				y = top_margin + position.y;
+			} else {
+				y = ((top_y[depth] + bottom_y[depth]) / 2) - (row_height / 2);
+			}
+			/*
+			 * Calculate the height
+			 */
+			int height;
+			String label = node.isTerminus() ? RenderUtil.getNodeLabel(node) : null;
+			if (label != null && !label.equals(""))
+				height = row_height;
+			else
+				height = DisplayBioentity.GLYPH_DIAMETER;
+
+			node.setNodeArea(x_spot[depth], y, height, width[depth]);
+			setCladeExtent(node);
+
+			if (depth > 0) {
+				int child_y = y + (height / 2);
+				int parent = depth - 1;
+				if (top_y[parent] < 0 || child_y < top_y[parent])
+					top_y[parent] = child_y;
+				if (bottom_y[parent] < 0 || child_y > bottom_y[parent])
+					bottom_y[parent] = child_y;
+			}
+		}
+	}
+
+	public int getNodeWidth(Graphics g, Bioentity node) {
+		int width = getTextWidth(g, node);
+		if (width == 0)
+			width = DisplayBioentity.GLYPH_DIAMETER;
+		else
+			width += DisplayBioentity.GLYPH_DIAMETER + DisplayBioentity.NODE_TO_TEXT_OFFSET;
+		return width;
+	}
+
+	private int getTextWidth(Graphics g, Bioentity node) {
+		if (!node.isTerminus()) {
+			return 0;
+		}
+		if (metrics == null || measured_font != GuiConstant.DEFAULT_FONT) {
+			measured_font = GuiConstant.DEFAULT_FONT;
+			metrics = g.getFontMetrics(measured_font);
+		}
+		// the width is kept with the node's label until its render state is cleared
+		return RenderUtil.getLabelWidth((DisplayBioentity) node, metrics);
+	}
+}
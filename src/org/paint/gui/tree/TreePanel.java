@@ -25,8 +25,9 @@ import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -36,14 +37,15 @@ import java.awt.event.InputEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
@@ -68,6 +70,8 @@ import org.bbop.phylo.tracking.LogAction;
 import org.paint.config.PaintConfig;
 import org.paint.displaymodel.DisplayBioentity;
 import org.paint.displaymodel.DisplayTree;
+import org.paint.displaymodel.TreeTraversal;
+import org.paint.gui.AspectSelector;
 import org.paint.gui.FamilyViews;
 import org.paint.gui.event.AnnotationChangeEvent;
 import org.paint.gui.event.AnnotationChangeListener;
@@ -82,6 +86,8 @@ import org.paint.gui.event.CurationColorListener;
 import org.paint.gui.event.EventManager;
 import org.paint.gui.event.GeneSelectEvent;
 import org.paint.gui.event.GeneSelectListener;
+import org.paint.gui.event.NodeReorderEvent;
+import org.paint.gui.event.NodeReorderListener;
 import org.paint.gui.event.TermSelectEvent;
 import org.paint.gui.event.TermSelectionListener;
 import org.paint.gui.table.GeneTable;
@@ -100,7 +106,8 @@ TermSelectionListener,
 AnnotationChangeListener, 
 AspectChangeListener, 
 AnnotationDragListener,
-ChallengeListener
+ChallengeListener,
+NodeReorderListener
 {
 	/**
 	 * 
@@ -131,6 +138,12 @@ ChallengeListener
 	// indicates whether or not the y values need to be recalculated on next draw
 	private boolean need_update = true;
 	private Rectangle tree_rect = new Rectangle(0, 0, 0, 0);
+	private final TreeLayout tree_layout = new TreeLayout();
+	// a single clade that has changed since the last layout
+	private NodeReorderEvent pending_clade;
+	private int layout_version = 0;
+	private final TileCache tiles = new TileCache();
+	private final BranchPainter branch_painter = new BranchPainter();
 
 	protected static final int LEFTMARGIN = 20;
 
@@ -155,12 +168,14 @@ ChallengeListener
 		manager.registerTermListener(this);
 		manager.registerCurationColorListener(this);
 		manager.registerChallengeListener(this);
+		manager.registerNodeReorderListener(this);
 
 		ToolTipManager.sharedInstance().registerComponent(this);
 	}
 
 	public void setTreeModel(DisplayTree tree2) {
 		this.tree = tree2;
+		tree_layout.setTree(tree2);
 		setNeedPositionUpdate();
 	}
 
@@ -168,6 +183,10 @@ ChallengeListener
 		return tree;
 	}
 
+	public TreeLayout getTreeLayout() {
+		return tree_layout;
+	}
+
 	public Bioentity getRoot() {
 		if (tree != null) {
 			return tree.getRoot();
@@ -262,6 +281,20 @@ ChallengeListener
 			return null;
 	}
 
+	public boolean isInClade(Bioentity node, Bioentity clade) {
+		if (tree != null) {
+			return tree.isInClade(node, clade);
+		} else
+			return false;
+	}
+
+	public List<Bioentity> getCladeLeaves(Bioentity clade) {
+		if (tree != null) {
+			return tree.getCladeLeaves(clade);
+		} else
+			return new ArrayList<Bioentity>();
+	}
+
 	public Bioentity getTopLeafNode(Bioentity root) {
 		if (tree != null) {
 			return tree.getTopLeafNode(root);
@@ -277,10 +310,8 @@ ChallengeListener
 	}
 
 	public void handlePruning(DisplayBioentity node) {
-		boolean shift = tree.handlePruning(node);
-		if (shift) {
-			setNeedPositionUpdate();
-		}
+		// any change is announced by a NodeReorderEvent, which takes care of the layout
+		tree.handlePruning(node);
 	}
 
 	// Override paintComponent method to draw tree image
@@ -317,12 +348,68 @@ ChallengeListener
 			return;
 		}
 		boolean use_distances = PaintConfig.inst().use_distances;
-		if (need_update) {
+		if (need_update || (pending_clade != null && !relayoutClade(g))) {
 			updateNodePositions(current_root, g, PaintManager.inst().getRowHeight(), use_distances);
 		}
-		Font  f = g.getFont();
-		paintBranch(current_root, current_root, g, r, use_distances);
-		g.setFont(f);
+		int width = getWidth();
+		if (width <= 0) {
+			Font  f = g.getFont();
+			paintBranch(current_root, current_root, g, r, use_distances);
+			g.setFont(f);
+			return;
+		}
+		tiles.validate(getTileKey(), width);
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = r;
+		}
+		int last_tile = TileCache.tileAt(clip.y + Math.max(0, clip.height - 1));
+		for (int tile = TileCache.tileAt(clip.y); tile <= last_tile; tile++) {
+			BufferedImage image = tiles.get(tile);
+			if (image == null) {
+				image = renderTile(current_root, tile, width, use_distances);
+				tiles.put(tile, image);
+			}
+			g.drawImage(image, 0, tile * TileCache.TILE_HEIGHT, null);
+		}
+	}
+
+	/*
+	 * Anything that changes how every node is drawn, apart from the panel width
+	 */
+	private Object getTileKey() {
+		PaintConfig prefs = PaintConfig.inst();
+		return Arrays.asList(layout_version, AspectSelector.inst().getAspectCode(),
+				prefs.expPaintColor, prefs.curatedPaintColor, prefs.inferPaintColor);
+	}
+
+	private BufferedImage renderTile(Bioentity current_root, int tile, int width, boolean use_distances) {
+		Rectangle bounds = TileCache.getBounds(tile, width);
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		BufferedImage image = (gc != null ?
+				gc.createCompatibleImage(bounds.width, bounds.height) :
+					new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB));
+		Graphics2D tile_g = image.createGraphics();
+		try {
+			tile_g.setColor(getBackground());
+			tile_g.fillRect(0, 0, bounds.width, bounds.height);
+			tile_g.setFont(getFont());
+			tile_g.translate(0, -bounds.y);
+			tile_g.setClip(bounds);
+			paintBranch(current_root, current_root, tile_g, bounds, use_distances);
+		} finally {
+			tile_g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Redraws a node whose appearance has changed, such as a drop target
+	 */
+	public void repaintNode(DisplayBioentity node) {
+		if (node != null && node.getScreenRectangle() != null) {
+			repaintNodes(Arrays.asList((Bioentity) node));
+		}
 	}
 
 	/**
@@ -336,31 +423,70 @@ ChallengeListener
 	 * @see
 	 */
 	private void paintBranch(Bioentity current_root, Bioentity dsn, Graphics g, Rectangle r, boolean use_distances){
-		if (null == dsn){
-			return;
+		branch_painter.paint(current_root, dsn, g, r);
+	}
+
+	/*
+	 * Draws the children that are vertically above each node first, then the node,
+	 * then the children below it, leaving out any clade that lies outside the viewport
+	 */
+	private class BranchPainter extends TreeTraversal.Visitor {
+		private final TreeTraversal traversal = new TreeTraversal();
+		private Bioentity current_root;
+		private Graphics g;
+		private Rectangle r;
+		private int [] top_count = new int[64];
+		private boolean [] drawn = new boolean[64];
+
+		void paint(Bioentity current_root, Bioentity dsn, Graphics g, Rectangle r) {
+			this.current_root = current_root;
+			this.g = g;
+			this.r = r;
+			try {
+				traversal.walk(dsn, this);
+			} finally {
+				this.g = null;
+			}
 		}
-		List<Bioentity>  topChildren = tree.getTopChildren(dsn);
-		List<Bioentity>  bottomChildren = tree.getBottomChildren(dsn);
-
-		// draw the children that are vertically above first
-		if (!dsn.isTerminus()){
-			if (null != topChildren){
-				for (Bioentity node : topChildren) {
-					paintBranch(current_root, node, g, r, use_distances);
-				}
+
+		@Override
+		public boolean enter(Bioentity dsn, int depth) {
+			if (depth == drawn.length) {
+				top_count = Arrays.copyOf(top_count, depth * 2);
+				drawn = Arrays.copyOf(drawn, depth * 2);
+			}
+			// nothing further down this branch can be seen
+			if (!((DisplayBioentity) dsn).cladeFallsInViewport(r)) {
+				drawn[depth] = true;
+				return false;
+			}
+			drawn[depth] = false;
+			if (dsn.isTerminus()) {
+				top_count[depth] = 0;
+				return false;
 			}
+			List<Bioentity> topChildren = tree.getTopChildren(dsn);
+			top_count[depth] = topChildren != null ? topChildren.size() : 0;
+			return true;
 		}
 
-		// Add the parent
-		DisplayBioentity node = (DisplayBioentity) dsn;
-		node.drawMarker(current_root, g, ((current_root == dsn) && (current_root != tree.getRoot())), r);
+		@Override
+		public void beforeChild(Bioentity dsn, int depth, int child) {
+			if (child == top_count[depth]) {
+				drawMarker(dsn, depth);
+			}
+		}
 
-		// Repeat for last half
-		if (!dsn.isTerminus()){
-			if (null != bottomChildren){
-				for (Iterator<Bioentity> it = bottomChildren.iterator(); it.hasNext();) {
-					paintBranch(current_root, it.next(), g, r, use_distances);
-				}
+		@Override
+		public void leave(Bioentity dsn, int depth) {
+			drawMarker(dsn, depth);
+		}
+
+		private void drawMarker(Bioentity dsn, int depth) {
+			if (!drawn[depth]) {
+				drawn[depth] = true;
+				DisplayBioentity node = (DisplayBioentity) dsn;
+				node.drawMarker(current_root, g, ((current_root == dsn) && (current_root != tree.getRoot())), r);
 			}
 		}
 	}
@@ -377,46 +503,45 @@ ChallengeListener
 	 * @see
 	 */
 	private void updateNodePositions(Bioentity current_root, Graphics g, int row_height, boolean use_distances) {
-		int x = TreePanel.LEFTMARGIN + getNodeWidth(g, current_root);
-		setNodeRectangle(current_root, row_height, x, 0, use_distances, g);
-		tree_rect = calcTreeSize(g);
+		tree_rect = tree_layout.layout(current_root, g, PaintManager.inst().getGeneTable(),
+				PaintManager.inst().getTopMargin() + 8, row_height, use_distances, getDistanceScaling());
 //		revalidate();
 //		repaint();
 		need_update = false;
+		pending_clade = null;
+		layout_version++;
+	}
+
+	/*
+	 * Only the pending clade and the rows below it have to be placed again
+	 */
+	private boolean relayoutClade(Graphics g) {
+		NodeReorderEvent clade = pending_clade;
+		pending_clade = null;
+		Rectangle clade_rect = tree_layout.relayout(clade.getChangedNode(), clade.getFirstRow(),
+				clade.getRemovedRows(), clade.getAddedRows(), getCurrentRoot(), g,
+				PaintManager.inst().getGeneTable(), PaintManager.inst().getTopMargin() + 8,
+				PaintManager.inst().getRowHeight(), PaintConfig.inst().use_distances, getDistanceScaling());
+		if (clade_rect == null) {
+			return false;
+		}
+		tree_rect = clade_rect;
+		layout_version++;
+		return true;
 	}
 
 	protected void setNeedPositionUpdate() {
 		need_update = true;
+		pending_clade = null;
+		tree_layout.invalidate();
 	}
 
-	/**
-	 * Method declaration
-	 *
-	 *
-	 * @param g
-	 *
-	 * @return
-	 *
-	 * @see
-	 */
-	private Rectangle calcTreeSize(Graphics g) {
-		tree_rect.setBounds(0, 0, 0, 0);
-		List<Bioentity> terminus_nodes = tree.getTerminusNodes();
-		DisplayBioentity bottom_node =  (DisplayBioentity) terminus_nodes.get(terminus_nodes.size() - 1);
-		Rectangle bottomRect = bottom_node.getScreenRectangle();
-		// Set the height
-		tree_rect.height = bottomRect.y;
-
-		// Determine the widest point
-		for (int i = 0; i < terminus_nodes.size(); i++){
-			DisplayBioentity dsn =  (DisplayBioentity) terminus_nodes.get(i);
-			int x = dsn.getScreenRectangle().x;
-			int width = getNodeWidth(g, dsn);
-			if (tree_rect.width < x + width){
-				tree_rect.width = x + width;
-			}
+	public void handleNodeReorderEvent(NodeReorderEvent event) {
+		if (event.hasChangedRows() && !need_update && pending_clade == null) {
+			pending_clade = event;
+		} else {
+			setNeedPositionUpdate();
 		}
-		return tree_rect;
 	}
 
 	private Rectangle getTreeSize(Graphics g) {
@@ -424,78 +549,13 @@ ChallengeListener
 			if (need_update) {
 				tree.nodesReordered();
 				updateNodePositions(getCurrentRoot(), g, PaintManager.inst().getRowHeight(), PaintConfig.inst().use_distances);
+			} else if (pending_clade != null && !relayoutClade(g)) {
+				updateNodePositions(getCurrentRoot(), g, PaintManager.inst().getRowHeight(), PaintConfig.inst().use_distances);
 			}
 		}
 		return tree_rect;
 	}
 
-	private int setNodeRectangle(Bioentity dot, int row_height, float base_x, float tree_depth, boolean use_distances, Graphics g) {
-		int x;
-		int y;
-		int width;
-		int height;
-		DisplayBioentity node = (DisplayBioentity) dot;
-		/*
-		 * Calculate the left-right x position first
-		 */
-		double scale = getDistanceScaling();
-		Float f;
-		if (!use_distances) {
-			f = new Float(base_x + (tree_depth * scale));
-		}
-		else {
-			f = new Float(base_x + (Math.abs(node.getDistanceFromParent()) * scale));
-		}
-		x = f.intValue();
-
-		/*
-		 * Calculate width using a method call because it's used more than once
-		 */
-		width = getNodeWidth(g, node);
-
-		/* 
-		 * Then calculate vertical y position
-		 */
-		if (node.isTerminus()) {
-			int margin = PaintManager.inst().getTopMargin() + 8;
-			int row = tree.getTerminusNodes().indexOf(node);
-			GeneTable mate = PaintManager.inst().getGeneTable();
-			Rectangle position = mate.getCellRect(row, 0, false);
-			double better_y = margin + position.getY();
-			y = (int) Math.round(better_y);
-		} else {
-			List<Bioentity>  children = node.getChildren();
-
-			if (null == children){
-				y = 0;
-			}
-			int top_y = -1;
-			int bottom_y = -1;
-			float child_depth = tree_depth + 1;
-			float child_base = f + width;
-			for (Bioentity kid : children) {
-				DisplayBioentity child = (DisplayBioentity) kid;
-				int child_y = setNodeRectangle(child, row_height, child_base, child_depth, use_distances, g);
-				if (top_y < 0 || child_y < top_y)
-					top_y = child_y;
-				if (bottom_y < 0 || child_y > bottom_y)
-					bottom_y = child_y;
-			}
-			y = ((top_y + bottom_y) / 2) - (row_height / 2);
-		}
-		/*
-		 * Calculate the height
-		 */
-		if (node.isTerminus() && node.getNodeLabel() != null && !node.getNodeLabel().equals(""))
-			height = row_height;
-		else
-			height =  DisplayBioentity.GLYPH_DIAMETER;
-
-		node.setNodeArea(x, y, height, width);
-
-		return y + (height / 2);
-	}
-
 	/**
 	 * Method declaration
 	 *
@@ -524,27 +584,6 @@ ChallengeListener
 		PaintConfig.inst().tree_distance_scaling = scale;
 	}
 
-	private int getNodeWidth(Graphics g, Bioentity node) {
-		int width = getTextWidth(g, node);
-		if (width == 0)
-			width = DisplayBioentity.GLYPH_DIAMETER;
-		else
-			width += DisplayBioentity.GLYPH_DIAMETER + DisplayBioentity.NODE_TO_TEXT_OFFSET;
-		return width;
-	}
-
-	private int getTextWidth(Graphics g, Bioentity node) {
-		int width = 0;
-		if (node.isTerminus()) {
-			String s = ((DisplayBioentity) node).getNodeLabel();
-			if (s != null && !s.equals(STR_EMPTY)) {
-				FontMetrics fm = g.getFontMetrics(GuiConstant.DEFAULT_FONT);
-				width = (fm.stringWidth(s));
-			}
-		}
-		return width;
-	}
-
 	// MouseListener implementation methods
 
 	/**
@@ -749,13 +788,13 @@ ChallengeListener
 	 */
 	public void mouseMoved(MouseEvent e){
 		if (tree != null) {
-			if (pointInNode(e.getPoint())){
+			DisplayBioentity  node = getClickedInNodeArea(e.getPoint());
+			if (node != null){
 				this.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 			}
 			else{
 				this.setCursor(Cursor.getDefaultCursor());
 			}
-			DisplayBioentity  node = getClickedInNodeArea(e.getPoint());
 			String tool_tip;
 			if (null == node){
 				tool_tip =  STR_EMPTY;
@@ -835,8 +874,8 @@ ChallengeListener
 		 * @see
 		 */
 		public void actionPerformed(ActionEvent e){
+			// the tree lets everyone know which rows changed
 			tree.handleCollapseExpand(node);
-			setNeedPositionUpdate();
 			revalidate();
 			repaint();
 		}
@@ -980,6 +1019,8 @@ ChallengeListener
 				select_area_rect.width += 2 * DisplayBioentity.GLYPH_DIAMETER;
 				select_area_rect.y -= 1;
 				select_area_rect.height += 2;
+				tiles.invalidate(select_area_rect.y - DisplayBioentity.GLYPH_DIAMETER,
+						select_area_rect.y + select_area_rect.height + DisplayBioentity.GLYPH_DIAMETER);
 				if (r == null) {
 					r = select_area_rect;
 				} else {
@@ -1064,6 +1105,14 @@ ChallengeListener
 	}
 
 	public void handleAnnotationChangeEvent(AnnotationChangeEvent event) {
+		if (event.getSource() instanceof DisplayBioentity) {
+			// what is inherited from the annotated node shows up throughout its clade
+			DisplayBioentity node = (DisplayBioentity) event.getSource();
+			tiles.invalidate(node.getCladeTop() - DisplayBioentity.GLYPH_DIAMETER,
+					node.getCladeBottom() + DisplayBioentity.GLYPH_DIAMETER);
+		} else {
+			tiles.clear();
+		}
 		revalidate();
 		repaint();
 	}
@@ -1073,6 +1122,7 @@ ChallengeListener
 	}
 
 	public void handleAspectChangeEvent(AnnotationDragEvent event) {
+		tiles.clear();
 		repaint();
 	}
 
@@ -1103,15 +1153,12 @@ ChallengeListener
 
 
 	public void handleCurationColorEvent(CurationColorEvent e) {
+		tiles.clear();
 		repaint();
 	}
 
 	public boolean pointInNode(Point p) {
-		DisplayBioentity current_root = (DisplayBioentity) getCurrentRoot();
-		if (null == getClicked(current_root, p)){
-			return false;
-		}
-		return true;
+		return getClicked(p) != null;
 	}
 
 	/**
@@ -1125,50 +1172,11 @@ ChallengeListener
 	 * @see
 	 */
 	 protected DisplayBioentity getClicked(Point p){
-		DisplayBioentity current_root = (DisplayBioentity) getCurrentRoot();
-		return getClicked(current_root, p);
+		return tree_layout.getNodeAt(p, getCurrentRoot());
 	 }
 
 	 public DisplayBioentity getClickedInNodeArea(Point p) {
-		 DisplayBioentity current_root = (DisplayBioentity) getCurrentRoot();
-		 return getClickedInNodeArea(current_root, p);
-	 }
-
-	 /**
-	  * Method declaration
-	  *
-	  *
-	  * @param dsn
-	  * @param p
-	  *
-	  * @return
-	  *
-	  * @see
-	  */
-	 private DisplayBioentity getClicked(DisplayBioentity dsn, Point p){
-		 if (null == dsn || dsn.getScreenRectangle() == null){
-			 return null;
-		 }
-		 if (dsn.getScreenRectangle().contains(p)){
-			 return dsn;
-		 }
-		 List<Bioentity> children = dsn.getChildren();
-
-		 if (null == children){
-			 return null;
-		 }
-		 if (dsn.isTerminus()){
-			 return null;
-		 }
-		 for (int i = 0; i < children.size(); i++){
-			 DisplayBioentity  gnHit = null;
-			 DisplayBioentity child = (DisplayBioentity) children.get(i);
-			 gnHit = getClicked(child, p);
-			 if (null != gnHit){
-				 return gnHit;
-			 }
-		 }
-		 return null;
+		 return tree_layout.getNodeAt(p, getCurrentRoot());
 	 }
 
 	 public DisplayBioentity getClickedInNodeArea(DisplayBioentity dsn, Point p) {
@@ -1229,9 +1237,11 @@ ChallengeListener
 		if (!nodes_to_make_visible.isEmpty()) {
 			tree.handleCollapseExpand(nodes_to_make_visible);
 			Graphics g = getGraphics();
-			int x = TreePanel.LEFTMARGIN + getNodeWidth(g, getCurrentRoot());
-			setNodeRectangle(getCurrentRoot(), PaintManager.inst().getRowHeight(), x, 0, PaintConfig.inst().use_distances, g);
-			tree_rect = calcTreeSize(g);
+			tree_layout.invalidate();
+			tree_rect = tree_layout.layout(getCurrentRoot(), g, PaintManager.inst().getGeneTable(),
+					PaintManager.inst().getTopMargin() + 8, PaintManager.inst().getRowHeight(),
+					PaintConfig.inst().use_distances, getDistanceScaling());
+			layout_version++;
 			return true;
 		} else {
 			return false;
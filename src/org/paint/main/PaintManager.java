@@ -23,6 +23,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.bbop.framework.GUIManager;
 import org.bbop.phylo.annotate.AnnotationUtil;
@@ -121,6 +122,17 @@ public class PaintManager {
 		else
 			return null;
 	}
+
+	/**
+	 * The row the gene table, MSA and annotation matrix show this node in,
+	 * -1 if it is not a visible terminus node
+	 */
+	public int getRow(Bioentity node) {
+		if (tree_pane != null)
+			return tree_pane.getTreeLayout().getRow(node);
+		else
+			return -1;
+	}
 	/**
 	 * Method declaration
 	 * 
@@ -137,16 +149,12 @@ public class PaintManager {
 		openFamily(family_name, true);
 	}
 
-	private void openFamily(String family_name, boolean existing) {
+	private void openFamily(final String family_name, final boolean existing) {
 
-		int progress_increment = (PaintConfig.inst().collapse_no_exp) ? 15 : 20;
-		progress_increment += !existing? 6 : 0;
-		int progress = 0;
-
-		fireProgressChange("Fetching " + family_name + " tree & MSA from PANTHERDB", progress, ProgressEvent.Status.START);
-		progress += progress_increment;
+		fireProgressChange("Fetching " + family_name + " tree & MSA from PANTHERDB", 0, ProgressEvent.Status.START);
 
 		family = new Family(family_name);
+		final Family opening = family;
 		DisplayTree tree = new DisplayTree(family_name);
 		PantherAdapter adapter = new PantherServerAdapter();
 		boolean success = family.fetch(tree, adapter);
@@ -156,65 +164,87 @@ public class PaintManager {
 			// Parse file and create tree
 			tree_pane.setTreeModel(tree);
 
-			// Load the attr file to obtain the PTN #s
-			GeneTableModel genes = new GeneTableModel(tree.getTerminusNodes());
-			genes_pane.setModel(genes);
+			/*
+			 * Once the tree is in place the MSA and the annotations have nothing to do with
+			 * each other, so they are loaded side by side. The views are only given the
+			 * new models after every stage has finished.
+			 */
+			StagePipeline pipeline = new StagePipeline(PaintManager.class);
+
+			/*
+			 * The family can be curated without the MSA, so a bad alignment only leaves
+			 * the MSA pane empty rather than failing the whole open
+			 */
+			Future<MSA> msa_stage = pipeline.add(new StagePipeline.Stage<MSA>("Parsing and coloring MSA") {
+				protected MSA run() {
+					if (opening.getMsaContent() != null) {
+						try {
+							return new MSA(opening.getMsaContent(), opening.getWtsContent());
+						} catch (RuntimeException e) {
+							log.error("Unable to show the MSA of " + family_name, e);
+						}
+					}
+					return null;
+				}
+			});
 
-			if (family.getMsaContent() != null) {
-				MSA msa = new MSA(family.getMsaContent(), family.getWtsContent());
-				msa_pane.setModel(msa);
-			}
-			try {
-				fireProgressChange("Fetching experimental annotations from GOLR", progress, ProgressEvent.Status.START);
-				progress += progress_increment;
-
-				success = AnnotationUtil.loadExperimental(family);
-				if (success)
-					/*
-					 * Don't bother with looking for these if they don't exist yet
-					 */
+			final Future<Boolean> experimental_stage = pipeline.add(new StagePipeline.Stage<Boolean>("Fetching experimental annotations from GOLR") {
+				protected Boolean run() {
+					return AnnotationUtil.loadExperimental(opening);
+				}
+			});
+
+			/*
+			 * Don't bother with looking for these if they don't exist yet
+			 */
+			Future<Boolean> paint_stage = pipeline.add(new StagePipeline.Stage<Boolean>("Loading PAINT annotations from GAF file") {
+				protected Boolean run() throws Exception {
+					if (!Boolean.TRUE.equals(experimental_stage.get())) {
+						return false;
+					}
 					if (existing) {
 						File family_dir = new File(PaintConfig.inst().gafdir);
-						Logger.importUserLog(family.getFamily_name(), family_dir);
-
-						fireProgressChange("Clearing disputed annotations", progress, ProgressEvent.Status.START);
-						progress += progress_increment;
-						GafPropagator.importChallenges(family, family_dir);
-
-						fireProgressChange("Loading PAINT annotations from GAF file", progress, ProgressEvent.Status.START);
-						progress += progress_increment;
-						GafPropagator.importAnnotations(family, family_dir);
-
+						Logger.importUserLog(opening.getFamily_name(), family_dir);
+						GafPropagator.importChallenges(opening, family_dir);
+						GafPropagator.importAnnotations(opening, family_dir);
 					} else {
 						Logger.clearUserLog();
 					}
-				else {
-					family = null;
-					fireProgressChange("Unable to retrieve experimental annotations " + family_name, 100, ProgressEvent.Status.END);
+					return true;
 				}
+			}, experimental_stage);
 
-			} catch (Exception e) {
+			GeneTableModel genes = new GeneTableModel(tree.getTerminusNodes());
+
+			Throwable failure = pipeline.await();
+			if (failure != null) {
+				success = false;
+				log.error("Opening " + family_name + " failed at stage \"" + pipeline.getFailedStage() + "\"", failure);
+			} else if (!Boolean.TRUE.equals(StagePipeline.result(experimental_stage))) {
 				success = false;
-				log.error("Something wrong with clade NOTs: " + e.getMessage());
-				e.printStackTrace();
+				fireProgressChange("Unable to retrieve experimental annotations " + family_name, 100, ProgressEvent.Status.END);
+			} else {
+				success = Boolean.TRUE.equals(StagePipeline.result(paint_stage));
 			}
 
 			if (success) {
-				fireProgressChange("Initializing annotation matrix", progress, ProgressEvent.Status.START);
-				progress += progress_increment;
+				fireProgressChange("Initializing annotation matrix", 80, ProgressEvent.Status.RUNNING);
 
+				genes_pane.setModel(genes);
+				MSA msa = StagePipeline.result(msa_stage);
+				if (msa != null) {
+					msa_pane.setModel(msa);
+				}
 				annot_matrix.setModels(getTree().getTerminusNodes());
 
 				DirtyIndicator.inst().dirtyGenes(false);
 
 				if (PaintConfig.inst().collapse_no_exp) {
-					fireProgressChange("Collapsing branches lacking experimental data", progress, ProgressEvent.Status.START);
-					progress += progress_increment;
-
+					fireProgressChange("Collapsing branches lacking experimental data", 90, ProgressEvent.Status.RUNNING);
 					tree_pane.collapseNonExperimental();
 				}
 
-				fireProgressChange("Notifying displays of new family", progress, ProgressEvent.Status.START);
+				fireProgressChange("Notifying displays of new family", 95, ProgressEvent.Status.RUNNING);
 				EventManager.inst().fireNewFamilyEvent(this, family);
 
 				fireProgressChange(family_name + " is ready", 100, ProgressEvent.Status.END);
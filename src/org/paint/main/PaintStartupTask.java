@@ -36,6 +36,7 @@ import org.paint.factory.StatusViewFactory;
 import org.paint.factory.TrackingFactory;
 import org.paint.gui.DirtyIndicator;
 import org.paint.gui.PaintDockingTheme;
+import org.paint.panther.FixedInfoCache;
 
 
 public class PaintStartupTask extends AbstractApplicationStartupTask {
@@ -60,6 +61,10 @@ public class PaintStartupTask extends AbstractApplicationStartupTask {
 	/** this is called at initialization i believe */
 	@Override
 	protected void doOtherInstallations() {
+		// Have the PANTHER server information ready before the first family is opened
+		if (FixedInfoCache.inst().getFresh() == null) {
+			FixedInfoCache.inst().revalidate();
+		}
 	}
 
 	@Override
@@ -0,0 +1,190 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.paint.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+import org.paint.gui.event.EventManager;
+import org.paint.gui.event.ProgressEvent;
+
+/**
+ * Runs the stages of a job (such as opening a family) on a pool of worker threads,
+ * starting each stage as soon as the stages it depends upon have finished.
+ *
+ * Stages must be added after the stages they depend upon. The pool takes them in the
+ * order they were added, so by the time a stage is waiting on a dependency that dependency
+ * is already running and the pool can never deadlock, whatever its size.
+ */
+public class StagePipeline {
+
+	private static final Logger log = Logger.getLogger(StagePipeline.class);
+
+	private static ExecutorService stage_pool;
+
+	private final Object source;
+	private final List<Future<?>> stages;
+	private final List<String> stage_names;
+	private int finished;
+	private String failed_stage;
+
+	/**
+	 * A unit of work in the pipeline. Its result is available to later stages through the
+	 * Future returned when it was added.
+	 */
+	public static abstract class Stage<V> {
+		private final String name;
+
+		public Stage(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		protected abstract V run() throws Exception;
+	}
+
+	public StagePipeline(Object source) {
+		this.source = source;
+		stages = new ArrayList<Future<?>>();
+		stage_names = new ArrayList<String>();
+		finished = 0;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (stage_pool == null) {
+			int threads = PaintConfig.inst().open_threads;
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			stage_pool = Executors.newFixedThreadPool(Math.max(2, threads), new ThreadFactory() {
+				private int count = 0;
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "stage-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return stage_pool;
+	}
+
+	/**
+	 * Schedules the stage to run once all of the given stages have completed.
+	 * If any of them failed the stage is not run and fails with the same cause.
+	 */
+	public <V> Future<V> add(final Stage<V> stage, final Future<?>... depends_on) {
+		Future<V> future = getPool().submit(new Callable<V>() {
+			public V call() throws Exception {
+				for (Future<?> dependency : depends_on) {
+					dependency.get();
+				}
+				long start = System.currentTimeMillis();
+				try {
+					return stage.run();
+				} finally {
+					stageDone(stage, System.currentTimeMillis() - start);
+				}
+			}
+		});
+		synchronized (this) {
+			stages.add(future);
+			stage_names.add(stage.getName());
+		}
+		return future;
+	}
+
+	/**
+	 * Waits for every stage to finish.
+	 *
+	 * @return the first failure, or null if all of the stages ran successfully.
+	 * The stage it came from is given by getFailedStage().
+	 */
+	public Throwable await() {
+		List<Future<?>> all;
+		List<String> names;
+		synchronized (this) {
+			all = new ArrayList<Future<?>>(stages);
+			names = new ArrayList<String>(stage_names);
+		}
+		Throwable failure = null;
+		String failed = null;
+		for (int i = 0; i < all.size(); i++) {
+			try {
+				all.get(i).get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+					failed = names.get(i);
+				}
+			} catch (InterruptedException e) {
+				if (failure == null) {
+					failure = e;
+					failed = names.get(i);
+				}
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			failed_stage = failed;
+		}
+		return failure;
+	}
+
+	/**
+	 * @return the name of the stage whose failure await() returned, or null if none failed
+	 */
+	public synchronized String getFailedStage() {
+		return failed_stage;
+	}
+
+	/**
+	 * Returns the result of a stage that has already been awaited
+	 */
+	public static <V> V result(Future<V> stage) {
+		try {
+			return stage.get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private void stageDone(Stage<?> stage, long elapsed) {
+		int percent;
+		synchronized (this) {
+			finished++;
+			percent = (finished * 100) / Math.max(1, stages.size() + 1);
+		}
+		log.info(stage.getName() + " took " + elapsed + "ms");
+		ProgressEvent event = new ProgressEvent(source, stage.getName() + " (" + elapsed + "ms)", percent,
+				ProgressEvent.Status.RUNNING, stage.getName(), elapsed);
+		EventManager.inst().fireProgressEvent(event);
+	}
+}
@@ -0,0 +1,399 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+import org.paint.util.LoginUtil;
+
+import com.sri.panther.paintCommon.Book;
+
+/**
+ * Every family (book) in the current upload version with its name and curation status,
+ * kept on disk so that the Open dialog does not have to download the list each time.
+ *
+ * The list is refreshed from the server in the background once it is older than
+ * PaintConfig.book_catalog_ttl hours. The server can only send the complete list, so the
+ * refresh is merged into the existing catalog and only written out again if a book was
+ * added, renamed, changed status or withdrawn.
+ *
+ * Lookups by ID prefix use binary search over the sorted IDs, anything else is
+ * a scan of the pre-lowercased IDs and names.
+ */
+public class BookCatalog {
+
+	private static final String SUFFIX = ".books.gz";
+	private static final String CHAR_ENCODING = "UTF-8";
+	private static final String TAB = "\t";
+
+	private static final Logger log = Logger.getLogger(BookCatalog.class);
+
+	private static BookCatalog INSTANCE = null;
+
+	private String version_key;
+	private long loaded; // when the books were received from the server
+	private Book [] books; // sorted by ID
+	private String [] lower_ids;
+	private String [] lower_names;
+	private boolean have_names; // false when the books came from the plain list of IDs
+	private Map<String, Book> by_id;
+	private ServerRequest<Boolean> refresh;
+	private boolean loading; // reading the catalog from disk
+	private final List<ChangeListener> listeners;
+
+	private BookCatalog() {
+		books = new Book[0];
+		lower_ids = new String[0];
+		lower_names = new String[0];
+		by_id = new HashMap<String, Book>();
+		listeners = new ArrayList<ChangeListener>();
+	}
+
+	public static synchronized BookCatalog inst() {
+		if (INSTANCE == null) {
+			INSTANCE = new BookCatalog();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Listeners are told, on the event dispatch thread, whenever the books change
+	 */
+	public synchronized void addChangeListener(ChangeListener listener) {
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+	public synchronized void removeChangeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Makes sure the catalog matches the current upload version and starts a background refresh
+	 * if it is out of date. A catalog saved on disk is read in the background as well,
+	 * the listeners are told once its books are in.
+	 */
+	public synchronized void open() {
+		final String key = PantherDbInfo.getDbAndVersionKey();
+		if (key == null) {
+			return;
+		}
+		if (!key.equals(version_key)) {
+			version_key = key;
+			loaded = 0;
+			setBooks(new ArrayList<Book>());
+			loading = true;
+			PantherServerAdapter.inst().submit(new Callable<Void>() {
+				public Void call() {
+					load(key);
+					return null;
+				}
+			}, 0);
+		} else if (!loading) {
+			refreshIfOld();
+		}
+	}
+
+	private synchronized void refreshIfOld() {
+		long ttl = PaintConfig.inst().book_catalog_ttl * 60 * 60 * 1000;
+		if (System.currentTimeMillis() - loaded >= ttl) {
+			refresh();
+		}
+	}
+
+	public synchronized int size() {
+		return books.length;
+	}
+
+	public synchronized Book getBook(String id) {
+		return id != null ? by_id.get(id.trim()) : null;
+	}
+
+	/**
+	 * @return books whose ID starts with the text, followed by those whose ID or name
+	 * contains it anywhere, up to limit books (0 for no limit)
+	 */
+	public synchronized Book [] find(String text, int limit) {
+		String cue = text != null ? text.trim().toLowerCase() : "";
+		int max = limit > 0 ? limit : Integer.MAX_VALUE;
+		if (cue.length() == 0) {
+			return Arrays.copyOf(books, Math.min(books.length, max));
+		}
+		List<Book> found = new ArrayList<Book>();
+		int first = Arrays.binarySearch(lower_ids, cue);
+		if (first < 0) {
+			first = -first - 1;
+		}
+		int prefix_end = first;
+		while (prefix_end < lower_ids.length && lower_ids[prefix_end].startsWith(cue) && found.size() < max) {
+			found.add(books[prefix_end]);
+			prefix_end++;
+		}
+		for (int i = 0; i < books.length && found.size() < max; i++) {
+			if (i >= first && i < prefix_end) {
+				continue;
+			}
+			if (lower_ids[i].contains(cue) || lower_names[i].contains(cue)) {
+				found.add(books[i]);
+			}
+		}
+		return found.toArray(new Book[found.size()]);
+	}
+
+	/**
+	 * @return the matching books in the same form as the definition search on the server,
+	 * or null if the server should be asked instead, because the catalog has no names
+	 * to search or none of them match
+	 */
+	public synchronized Vector<Book> searchDefinition(String text) {
+		if (!have_names) {
+			return null;
+		}
+		String cue = text.trim().toLowerCase();
+		Vector<Book> found = new Vector<Book>();
+		for (int i = 0; i < books.length; i++) {
+			if (lower_names[i].contains(cue)) {
+				found.add(books[i]);
+			}
+		}
+		return found.isEmpty() ? null : found;
+	}
+
+	public synchronized ServerRequest<Boolean> refresh() {
+		if (refresh != null && !refresh.isDone()) {
+			return refresh;
+		}
+		final String key = version_key;
+		refresh = PantherServerAdapter.inst().submit(new Callable<Boolean>() {
+			public Boolean call() {
+				List<Book> latest = fetch(key);
+				return latest != null && merge(key, latest);
+			}
+		}, PaintConfig.inst().server_read_timeout);
+		return refresh;
+	}
+
+	/*
+	 * The full book records are part of the allBooks search, but should that fail
+	 * the plain list of IDs is better than nothing
+	 */
+	private List<Book> fetch(String key) {
+		Vector<String> sendInfo = new Vector<String>(2);
+		sendInfo.add("");
+		sendInfo.add(key);
+		Vector all = PantherServerAdapter.inst().searchAllBooks(sendInfo, null, null);
+		if (all != null && all.size() > 1 && ((String) all.elementAt(0)).length() == 0) {
+			return new ArrayList<Book>((Vector<Book>) all.elementAt(1));
+		}
+		Vector<? extends Object> ids = PantherServerAdapter.inst().listFamilies(LoginUtil.getUserInfo(), key);
+		if (ids != null && ids.size() > 1 && ((String) ids.elementAt(0)).length() == 0) {
+			List<Book> latest = new ArrayList<Book>();
+			for (String id : (String []) ids.elementAt(1)) {
+				Book known = getBook(id);
+				latest.add(known != null ? known : new Book(id, "", Book.CURATION_STATUS_UNKNOWN, null));
+			}
+			return latest;
+		}
+		log.warn("Unable to refresh the catalog of PANTHER families");
+		return null;
+	}
+
+	private boolean merge(String key, List<Book> latest) {
+		int changes = 0;
+		synchronized (this) {
+			if (!key.equals(version_key)) {
+				// the upload version changed while we were waiting on the server
+				return false;
+			}
+			Map<String, Book> previous = by_id;
+			for (Book book : latest) {
+				Book known = previous.get(book.getId());
+				if (known == null || !same(known.getName(), book.getName()) ||
+						known.getCurationStatus() != book.getCurationStatus()) {
+					changes++;
+				}
+			}
+			changes += Math.max(0, previous.size() - latest.size());
+			loaded = System.currentTimeMillis();
+			if (changes > 0) {
+				log.info("Catalog of PANTHER families: " + changes + " changes");
+				setBooks(latest);
+				save();
+			} else {
+				getFile().setLastModified(loaded);
+			}
+		}
+		if (changes > 0) {
+			fireChanged();
+		}
+		return changes > 0;
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private void setBooks(List<Book> latest) {
+		Book [] sorted = latest.toArray(new Book[latest.size()]);
+		// Sorted the same way as lower_ids, so that find() can binary search them
+		Arrays.sort(sorted, BY_LOWER_ID);
+		String [] ids = new String[sorted.length];
+		String [] names = new String[sorted.length];
+		Map<String, Book> index = new HashMap<String, Book>(sorted.length * 2);
+		boolean named = false;
+		for (int i = 0; i < sorted.length; i++) {
+			ids[i] = sorted[i].getId().toLowerCase();
+			names[i] = sorted[i].getName() != null ? sorted[i].getName().toLowerCase() : "";
+			named |= names[i].length() > 0;
+			index.put(sorted[i].getId(), sorted[i]);
+		}
+		books = sorted;
+		lower_ids = ids;
+		lower_names = names;
+		have_names = named;
+		by_id = index;
+	}
+
+	private static final Comparator<Book> BY_LOWER_ID = new Comparator<Book>() {
+		public int compare(Book a, Book b) {
+			return a.getId().toLowerCase().compareTo(b.getId().toLowerCase());
+		}
+	};
+
+	private void fireChanged() {
+		final List<ChangeListener> notify;
+		synchronized (this) {
+			notify = new ArrayList<ChangeListener>(listeners);
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				ChangeEvent event = new ChangeEvent(BookCatalog.this);
+				for (ChangeListener listener : notify) {
+					listener.stateChanged(event);
+				}
+			}
+		});
+	}
+
+	private File getFile() {
+		return getFile(version_key);
+	}
+
+	private static File getFile(String key) {
+		String cache_dir = PaintConfig.inst().cachedir;
+		return new File(cache_dir != null ? cache_dir : "config/cache", FamilyCache.safeName(key) + SUFFIX);
+	}
+
+	/*
+	 * Reads the saved catalog outside the lock, so that lookups carry on meanwhile
+	 * with whatever is already in the catalog
+	 */
+	private void load(String key) {
+		File file = getFile(key);
+		List<Book> stored = null;
+		if (file.exists()) {
+			stored = new ArrayList<Book>();
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), CHAR_ENCODING));
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						String [] fields = line.split(TAB, 3);
+						if (fields.length == 3) {
+							stored.add(new Book(fields[0], fields[2], Integer.parseInt(fields[1]), null));
+						}
+					}
+				} finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				log.warn("Unable to read " + file + ": " + e.getMessage());
+				file.delete();
+				stored = null;
+			}
+		}
+		synchronized (this) {
+			if (!key.equals(version_key)) {
+				// the upload version changed while the file was being read
+				return;
+			}
+			loading = false;
+			if (stored != null) {
+				setBooks(stored);
+				loaded = file.lastModified();
+			}
+			refreshIfOld();
+		}
+		if (stored != null) {
+			fireChanged();
+		}
+	}
+
+	private void save() {
+		File file = getFile();
+		File tmp_file = new File(file.getPath() + ".tmp");
+		try {
+			if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+				throw new IOException("could not create " + file.getParentFile());
+			}
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp_file)), CHAR_ENCODING));
+			try {
+				for (Book book : books) {
+					String name = book.getName() != null ? book.getName().replace('\t', ' ').replace('\n', ' ') : "";
+					out.write(book.getId() + TAB + book.getCurationStatus() + TAB + name);
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tmp_file.renameTo(file)) {
+				throw new IOException("could not rename " + tmp_file);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to save " + file + ": " + e.getMessage());
+			tmp_file.delete();
+		}
+	}
+}
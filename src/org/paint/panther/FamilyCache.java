@@ -0,0 +1,409 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+
+import com.sri.panther.paintCommon.RawComponentContainer;
+
+/**
+ * Local copy of the families that have been fetched from the PANTHER server.
+ *
+ * Only the parts of the RawComponentContainer that are needed to open a family
+ * (tree, attribute table, MSA and weights) are kept. Each family is written to its own
+ * gzipped file in a directory named after the current database and upload version,
+ * so that switching to a new upload version never serves stale trees.
+ * The total size of the cache is bounded and the least recently opened families
+ * are removed first.
+ */
+public class FamilyCache {
+
+	private static final int MAGIC = 0x50414e54; // "PANT"
+	private static final int FORMAT_VERSION = 1;
+	private static final String SUFFIX = ".fam.gz";
+	private static final String CHAR_ENCODING = "UTF-8";
+	private static final int BUF_SIZE = 64 * 1024;
+
+	private static final Logger log = Logger.getLogger(FamilyCache.class);
+
+	private static FamilyCache INSTANCE = null;
+
+	/*
+	 * File name to file size, in access order so that the eldest entry is the
+	 * least recently used family.
+	 */
+	private final LinkedHashMap<String, Long> entries;
+	private long total_size;
+	private String version_key;
+	private File version_dir;
+
+	private FamilyCache() {
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	}
+
+	public static synchronized FamilyCache inst() {
+		if (INSTANCE == null) {
+			INSTANCE = new FamilyCache();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the cached copy of the family for the current upload version, or null if
+	 * the family has not been cached (or the cache is switched off).
+	 */
+	public synchronized RawComponentContainer get(String familyID) {
+		if (!isEnabled() || familyID == null || !openVersion()) {
+			return null;
+		}
+		String file_name = fileName(familyID);
+		if (!entries.containsKey(file_name)) {
+			return null;
+		}
+		File family_file = new File(version_dir, file_name);
+		RawComponentContainer rcc = null;
+		try {
+			rcc = read(family_file, familyID);
+		} catch (IOException e) {
+			log.warn("Unable to read cached family " + familyID + ": " + e.getMessage());
+		}
+		if (rcc == null) {
+			remove(file_name);
+		} else {
+			// Remember the recency across sessions
+			family_file.setLastModified(System.currentTimeMillis());
+		}
+		return rcc;
+	}
+
+	/**
+	 * Saves the family as just downloaded from the server and then trims the cache
+	 * back down to its size limit.
+	 */
+	public synchronized void put(String familyID, RawComponentContainer rcc) {
+		if (!isEnabled() || familyID == null || rcc == null || !openVersion()) {
+			return;
+		}
+		String file_name = fileName(familyID);
+		File family_file = new File(version_dir, file_name);
+		File tmp_file = new File(version_dir, file_name + ".tmp");
+		try {
+			write(tmp_file, familyID, rcc);
+			if (family_file.exists() && !family_file.delete()) {
+				throw new IOException("could not replace " + family_file);
+			}
+			if (!tmp_file.renameTo(family_file)) {
+				throw new IOException("could not rename " + tmp_file);
+			}
+			// The file is the new copy, only the index still has the size of the old one
+			forget(file_name);
+			add(file_name, family_file.length());
+			evict();
+		} catch (IOException e) {
+			log.warn("Unable to cache family " + familyID + ": " + e.getMessage());
+			tmp_file.delete();
+		}
+	}
+
+	/**
+	 * Removes all cached families, for every upload version.
+	 */
+	public synchronized void clear() {
+		File root = getCacheDir();
+		File [] version_dirs = root.listFiles();
+		if (version_dirs != null) {
+			for (File dir : version_dirs) {
+				deleteDir(dir);
+			}
+		}
+		entries.clear();
+		total_size = 0;
+		version_key = null;
+		version_dir = null;
+	}
+
+	public synchronized long getSize() {
+		return total_size;
+	}
+
+	private boolean isEnabled() {
+		return PaintConfig.inst().family_cache_limit > 0;
+	}
+
+	private File getCacheDir() {
+		String cache_dir = PaintConfig.inst().cachedir;
+		return new File(cache_dir != null ? cache_dir : "config/cache", "families");
+	}
+
+	/*
+	 * Makes sure the in-memory index reflects the directory for the current upload version.
+	 * When the version changes everything cached for other versions is thrown away.
+	 */
+	private boolean openVersion() {
+		String key = PantherDbInfo.getDbAndVersionKey();
+		if (key == null) {
+			return false;
+		}
+		if (key.equals(version_key) && version_dir != null) {
+			return true;
+		}
+		entries.clear();
+		total_size = 0;
+		version_key = key;
+
+		File root = getCacheDir();
+		String dir_name = safeName(key);
+		version_dir = new File(root, dir_name);
+		File [] version_dirs = root.listFiles();
+		if (version_dirs != null) {
+			for (File dir : version_dirs) {
+				if (!dir.getName().equals(dir_name)) {
+					log.info("Upload version changed, removing cached families in " + dir);
+					deleteDir(dir);
+				}
+			}
+		}
+		if (!version_dir.isDirectory() && !version_dir.mkdirs()) {
+			log.warn("Unable to create family cache directory " + version_dir);
+			version_dir = null;
+			return false;
+		}
+
+		File [] cached = version_dir.listFiles();
+		if (cached != null) {
+			// oldest first, so the access order matches the last time each family was opened
+			Arrays.sort(cached, new Comparator<File>() {
+				public int compare(File a, File b) {
+					long diff = a.lastModified() - b.lastModified();
+					return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+				}
+			});
+			for (File family_file : cached) {
+				if (family_file.getName().endsWith(SUFFIX)) {
+					add(family_file.getName(), family_file.length());
+				} else {
+					family_file.delete();
+				}
+			}
+		}
+		evict();
+		return true;
+	}
+
+	private void add(String file_name, long size) {
+		entries.put(file_name, size);
+		total_size += size;
+	}
+
+	/*
+	 * Takes the family out of the cache, file and all
+	 */
+	private void remove(String file_name) {
+		forget(file_name);
+		deleteFile(file_name);
+	}
+
+	/*
+	 * Takes the family out of the index only, leaving its file alone
+	 */
+	private void forget(String file_name) {
+		Long size = entries.remove(file_name);
+		if (size != null) {
+			total_size -= size;
+		}
+	}
+
+	private void deleteFile(String file_name) {
+		if (version_dir != null) {
+			new File(version_dir, file_name).delete();
+		}
+	}
+
+	private void evict() {
+		long limit = PaintConfig.inst().family_cache_limit * 1024 * 1024;
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (total_size > limit && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			it.remove();
+			total_size -= eldest.getValue();
+			deleteFile(eldest.getKey());
+			log.debug("Evicted " + eldest.getKey() + " from family cache");
+		}
+	}
+
+	private String fileName(String familyID) {
+		return safeName(familyID) + SUFFIX;
+	}
+
+	static String safeName(String name) {
+		StringBuilder safe = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '-' || c == '.') {
+				safe.append(c);
+			} else {
+				safe.append('_');
+			}
+		}
+		return safe.toString();
+	}
+
+	private static void deleteDir(File dir) {
+		File [] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private void write(File file, String familyID, RawComponentContainer rcc) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file), BUF_SIZE), BUF_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, version_key);
+			writeString(out, familyID);
+			writeString(out, rcc.getBook());
+			writeString(out, rcc.getName());
+
+			Vector<String[]> tree = (Vector<String[]>) rcc.getTree();
+			writeStrings(out, tree != null && tree.size() > 0 ? tree.elementAt(0) : null);
+
+			writeStrings(out, rcc.getAttributeTable());
+
+			Vector<String[]> msa = (Vector<String[]>) rcc.getMSA();
+			int msa_count = msa != null ? Math.min(msa.size(), 2) : 0;
+			out.writeInt(msa_count);
+			for (int i = 0; i < msa_count; i++) {
+				writeStrings(out, msa.elementAt(i));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private RawComponentContainer read(File file, String familyID) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file), BUF_SIZE), BUF_SIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			String key = readString(in);
+			String id = readString(in);
+			if (!version_key.equals(key) || !familyID.equals(id)) {
+				return null;
+			}
+			RawComponentContainer rcc = new RawComponentContainer();
+			rcc.setBook(readString(in));
+			rcc.setName(readString(in));
+
+			String [] tree_lines = readStrings(in);
+			if (tree_lines == null) {
+				return null;
+			}
+			Vector<String[]> tree = new Vector<String[]>(1);
+			tree.add(tree_lines);
+			rcc.setTree(tree);
+
+			rcc.setAttributeTable(readStrings(in));
+
+			int msa_count = in.readInt();
+			if (msa_count > 0) {
+				Vector<String[]> msa = new Vector<String[]>(msa_count);
+				for (int i = 0; i < msa_count; i++) {
+					msa.add(readStrings(in));
+				}
+				rcc.setMSA(msa);
+			}
+			return rcc;
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * DataOutputStream.writeUTF is limited to 64K, which a single newick line can easily exceed
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte [] bytes = s.getBytes(CHAR_ENCODING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte [] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CHAR_ENCODING);
+	}
+
+	private static void writeStrings(DataOutputStream out, String [] lines) throws IOException {
+		if (lines == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(lines.length);
+			for (String line : lines) {
+				writeString(out, line);
+			}
+		}
+	}
+
+	private static String [] readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0) {
+			return null;
+		}
+		String [] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			lines[i] = readString(in);
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+
+import com.sri.panther.paintCommon.FixedInfo;
+
+/**
+ * Keeps the last FixedInfo received from the PANTHER server on disk, so that a session
+ * can start with it straight away instead of waiting on the server.
+ * A copy younger than PaintConfig.fixed_info_ttl is used as is and refreshed in the background,
+ * an older copy is only used when the server cannot be reached.
+ */
+public class FixedInfoCache {
+
+	private static final String FILE_NAME = "FixedInfo.ser.gz";
+
+	private static final Logger log = Logger.getLogger(FixedInfoCache.class);
+
+	private static FixedInfoCache INSTANCE = null;
+
+	private FixedInfo fixed_info;
+	private long fetched; // when fixed_info was received from the server
+	private ServerRequest<FixedInfo> revalidation;
+
+	private FixedInfoCache() {
+		fetched = 0;
+	}
+
+	public static synchronized FixedInfoCache inst() {
+		if (INSTANCE == null) {
+			INSTANCE = new FixedInfoCache();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the stored FixedInfo if it is still within its time to live, otherwise null
+	 */
+	public synchronized FixedInfo getFresh() {
+		load();
+		if (fixed_info != null && System.currentTimeMillis() - fetched < getTTL()) {
+			return fixed_info;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the stored FixedInfo however old it is, or null if there is none
+	 */
+	public synchronized FixedInfo getStale() {
+		load();
+		return fixed_info;
+	}
+
+	/**
+	 * Fetches the FixedInfo from the server, storing it if it was received
+	 */
+	public FixedInfo fetch() {
+		FixedInfo fi = PantherServerAdapter.inst().getFixedInfoFromServer();
+		if (fi != null) {
+			store(fi);
+		}
+		return fi;
+	}
+
+	/**
+	 * Like fetch(), except that if a revalidation is already on its way to the server
+	 * its answer is waited for rather than asking the server a second time
+	 */
+	public FixedInfo fetchOrAwait() {
+		ServerRequest<FixedInfo> pending;
+		synchronized (this) {
+			pending = revalidation;
+		}
+		if (pending != null && !pending.isDone()) {
+			try {
+				FixedInfo fi = pending.get();
+				if (fi != null) {
+					return fi;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException | CancellationException e) {
+				log.debug("Revalidating the FixedInfo failed, asking the server again: " + e.getMessage());
+			}
+		}
+		return fetch();
+	}
+
+	/**
+	 * Refreshes the stored copy without holding up the caller. If the server has
+	 * moved on to another upload version the new one is used from then on.
+	 */
+	public synchronized ServerRequest<FixedInfo> revalidate() {
+		if (revalidation != null && !revalidation.isDone()) {
+			return revalidation;
+		}
+		revalidation = PantherServerAdapter.inst().submit(new Callable<FixedInfo>() {
+			public FixedInfo call() {
+				String previous_key = PantherDbInfo.getDbAndVersionKey();
+				FixedInfo fi = fetch();
+				if (fi != null && previous_key != null) {
+					PantherDbInfo.setFixedInfo(fi);
+					if (!previous_key.equals(PantherDbInfo.getDbAndVersionKey())) {
+						log.info("PANTHER upload version is now " + PantherDbInfo.getDbAndVersionName());
+					}
+				}
+				return fi;
+			}
+		}, PaintConfig.inst().server_read_timeout);
+		return revalidation;
+	}
+
+	private long getTTL() {
+		return PaintConfig.inst().fixed_info_ttl * 60 * 60 * 1000;
+	}
+
+	private File getFile() {
+		String cache_dir = PaintConfig.inst().cachedir;
+		return new File(cache_dir != null ? cache_dir : "config/cache", FILE_NAME);
+	}
+
+	private void load() {
+		if (fixed_info != null) {
+			return;
+		}
+		File file = getFile();
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+			try {
+				fixed_info = (FixedInfo) in.readObject();
+				fetched = file.lastModified();
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			// Most likely written by an incompatible version of FixedInfo
+			log.warn("Unable to read " + file + ": " + e.getMessage());
+			file.delete();
+		}
+	}
+
+	private synchronized void store(FixedInfo fi) {
+		fixed_info = fi;
+		fetched = System.currentTimeMillis();
+		File file = getFile();
+		File tmp_file = new File(file.getPath() + ".tmp");
+		try {
+			if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+				throw new IOException("could not create " + file.getParentFile());
+			}
+			ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp_file))));
+			try {
+				out.writeObject(fi);
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tmp_file.renameTo(file)) {
+				throw new IOException("could not rename " + tmp_file);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to save " + file + ": " + e.getMessage());
+			tmp_file.delete();
+		}
+	}
+}
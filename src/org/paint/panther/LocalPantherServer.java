@@ -0,0 +1,412 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+import org.paint.util.LoginUtil;
+
+import com.sri.panther.paintCommon.Book;
+import com.sri.panther.paintCommon.FixedInfo;
+import com.sri.panther.paintCommon.RawComponentContainer;
+import com.sri.panther.paintCommon.TransferInfo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the PANTHER Client2Servlet that runs inside the JVM and answers
+ * from recorded fixtures instead of the database, so that PantherServerAdapter can be
+ * exercised and timed without a network connection.
+ *
+ * A fixture directory holds FixedInfo.ser.gz and one [family ID].ser.gz per family,
+ * both gzipped java serializations as written by record().
+ * Latency (per request) and bandwidth (per response) can be set to mimic a remote server.
+ *
+ * Usage:
+ *   record [fixture dir] [family ID]...     fetch fixtures from the live server
+ *   serve  [fixture dir] [port]             answer requests until killed
+ *   bench  [fixture dir] [repeats]          time OpenBook for every fixture family
+ */
+public class LocalPantherServer {
+
+	private static final String SERVLET = "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet";
+	private static final String FIXED_INFO_FILE = "FixedInfo";
+	private static final String SUFFIX = ".ser.gz";
+	private static final String ACTION = "action=";
+	private static final String GZIP = "gzip";
+
+	private static final Logger log = Logger.getLogger(LocalPantherServer.class);
+
+	private final File fixture_dir;
+	private FixedInfo fixed_info;
+	private final List<Book> books;
+	private final Map<String, String[]> attributes;
+	private final Map<String, byte []> open_book_responses;
+
+	private HttpServer server;
+	private volatile long latency = 0; // milliseconds
+	private volatile long bandwidth = 0; // bytes per second, 0 is unlimited
+	private final AtomicInteger request_count = new AtomicInteger();
+
+	public LocalPantherServer(File fixture_dir) throws IOException, ClassNotFoundException {
+		this.fixture_dir = fixture_dir;
+		books = new ArrayList<Book>();
+		attributes = new HashMap<String, String[]>();
+		open_book_responses = Collections.synchronizedMap(new HashMap<String, byte []>());
+		loadFixtures();
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	public int getRequestCount() {
+		return request_count.get();
+	}
+
+	/**
+	 * Starts listening on the loopback interface. A port of 0 picks any free port.
+	 *
+	 * @return the base URL to give to PaintConfig.panther_url
+	 */
+	public String start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext(SERVLET, new ServletHandler());
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		String url = getURL();
+		log.info("Local PANTHER server for " + fixture_dir + " listening at " + url);
+		return url;
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	public String getURL() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Points PAINT at this server instead of the real one
+	 */
+	public void useForPaint() {
+		PaintConfig.inst().panther_url = getURL();
+	}
+
+	public List<String> getFamilyIDs() {
+		List<String> ids = new ArrayList<String>();
+		for (Book book : books) {
+			ids.add(book.getId());
+		}
+		return ids;
+	}
+
+	private void loadFixtures() throws IOException, ClassNotFoundException {
+		File fixed_info_file = new File(fixture_dir, FIXED_INFO_FILE + SUFFIX);
+		if (fixed_info_file.exists()) {
+			fixed_info = (FixedInfo) readFixture(fixed_info_file);
+		} else {
+			log.warn("No " + fixed_info_file + ", using the FixedInfo bundled with PAINT");
+			fixed_info = FixedInfo.createFixedInfo();
+		}
+		File [] files = fixture_dir.listFiles();
+		if (files == null) {
+			throw new IOException("No fixture directory " + fixture_dir);
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(SUFFIX) && !name.equals(fixed_info_file.getName())) {
+				RawComponentContainer rcc = (RawComponentContainer) readFixture(file);
+				String id = name.substring(0, name.length() - SUFFIX.length());
+				books.add(new Book(id, rcc.getName(), Book.CURATION_STATUS_UNKNOWN, null));
+				attributes.put(id, rcc.getAttributeTable());
+			}
+		}
+		Collections.sort(books);
+	}
+
+	private class ServletHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			request_count.incrementAndGet();
+			try {
+				String query = exchange.getRequestURI().getQuery();
+				String action = (query != null && query.startsWith(ACTION)) ? query.substring(ACTION.length()) : "";
+				Object sendInfo = readRequest(exchange);
+				if (latency > 0) {
+					Thread.sleep(latency);
+				}
+				byte [] response;
+				if (PantherServerAdapter.REQUEST_OPEN_BOOK.equals(action)) {
+					response = openBook((Vector) sendInfo);
+				} else {
+					response = serialize(respond(action, sendInfo));
+				}
+				exchange.sendResponseHeaders(200, response.length);
+				writeThrottled(exchange.getResponseBody(), response);
+			} catch (Exception e) {
+				log.error("Local PANTHER server could not answer " + exchange.getRequestURI() + ": " + e.getMessage());
+				exchange.sendResponseHeaders(500, -1);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private Object readRequest(HttpExchange exchange) throws IOException, ClassNotFoundException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			return null;
+		}
+		InputStream body = new BufferedInputStream(exchange.getRequestBody());
+		if (GZIP.equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			body = new GZIPInputStream(body);
+		}
+		ObjectInputStream in = new ObjectInputStream(body);
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private Vector<Object> respond(String action, Object sendInfo) {
+		Vector<Object> output = new Vector<Object>();
+		if (PantherServerAdapter.REQUEST_FIXED_INFO.equals(action)) {
+			output.add(new TransferInfo(""));
+			output.add(fixed_info);
+		} else if (PantherServerAdapter.REQUEST_USER_INFO.equals(action)) {
+			output.add(new TransferInfo(""));
+		} else if (PantherServerAdapter.REQUEST_BOOK_LIST.equals(action)) {
+			output.add(new TransferInfo(""));
+			output.add(new Vector<String>(getFamilyIDs()));
+		} else if (PantherServerAdapter.REQUEST_SEARCH_ALL_BOOKS.equals(action)) {
+			output.add(new TransferInfo(""));
+			output.add(new Vector<Book>(books));
+		} else if (PantherServerAdapter.REQUEST_SEARCH_DEFINITION.equals(action)) {
+			output.add(new TransferInfo(""));
+			output.add(search(searchTerm(sendInfo), false));
+		} else if (PantherServerAdapter.REQUEST_SEARCH_GENE_NAME.equals(action) ||
+				PantherServerAdapter.REQUEST_SEARCH_GENE_EXT_ID.equals(action) ||
+				PantherServerAdapter.REQUEST_SEARCH_PROTEIN_EXT_ID.equals(action)) {
+			output.add(new TransferInfo(""));
+			output.add(search(searchTerm(sendInfo), true));
+		} else {
+			output.add(new TransferInfo("Action " + action + " is not supported by the local PANTHER server"));
+		}
+		return output;
+	}
+
+	private byte [] openBook(Vector sendInfo) throws IOException, ClassNotFoundException {
+		String family_id = (String) sendInfo.elementAt(2);
+		byte [] response = open_book_responses.get(family_id);
+		if (response == null) {
+			Vector<Object> output = new Vector<Object>();
+			File family_file = new File(fixture_dir, family_id + SUFFIX);
+			if (family_file.exists()) {
+				output.add(new TransferInfo(""));
+				output.add(readFixture(family_file));
+			} else {
+				output.add(new TransferInfo("No such family " + family_id));
+			}
+			response = serialize(output);
+			open_book_responses.put(family_id, response);
+		}
+		return response;
+	}
+
+	private String searchTerm(Object sendInfo) {
+		return ((String) ((Vector) sendInfo).elementAt(0)).toLowerCase();
+	}
+
+	/*
+	 * The genes of each family are only known through its attribute table,
+	 * so gene and protein searches look there and definition searches look at the family name
+	 */
+	private Vector<Book> search(String term, boolean genes) {
+		Vector<Book> found = new Vector<Book>();
+		for (Book book : books) {
+			boolean match = false;
+			if (genes) {
+				String [] rows = attributes.get(book.getId());
+				for (int i = 0; rows != null && i < rows.length && !match; i++) {
+					match = rows[i] != null && rows[i].toLowerCase().contains(term);
+				}
+			} else {
+				match = book.getName() != null && book.getName().toLowerCase().contains(term);
+			}
+			if (match) {
+				found.add(book);
+			}
+		}
+		return found;
+	}
+
+	private void writeThrottled(OutputStream out, byte [] response) throws IOException, InterruptedException {
+		long rate = bandwidth;
+		if (rate <= 0) {
+			out.write(response);
+		} else {
+			// send in 50ms slices
+			int slice = (int) Math.max(1, rate / 20);
+			for (int offset = 0; offset < response.length; offset += slice) {
+				out.write(response, offset, Math.min(slice, response.length - offset));
+				out.flush();
+				Thread.sleep(50);
+			}
+		}
+		out.close();
+	}
+
+	private static byte [] serialize(Object output) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes));
+		out.writeObject(output);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object readFixture(File file) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeFixture(File file, Object fixture) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+		try {
+			out.writeObject(fixture);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Saves the responses of the server PAINT is currently configured to use
+	 */
+	public static void record(File fixture_dir, List<String> family_ids) throws IOException {
+		if (!fixture_dir.isDirectory() && !fixture_dir.mkdirs()) {
+			throw new IOException("Unable to create " + fixture_dir);
+		}
+		PantherServerAdapter adapter = PantherServerAdapter.inst();
+		FixedInfo fi = adapter.getFixedInfoFromServer();
+		if (fi == null) {
+			throw new IOException(adapter.getServerStatus());
+		}
+		PantherDbInfo.setFixedInfo(fi);
+		writeFixture(new File(fixture_dir, FIXED_INFO_FILE + SUFFIX), fi);
+		for (String family_id : family_ids) {
+			RawComponentContainer rcc = adapter.getRawPantherFam(LoginUtil.getUserInfo(), family_id);
+			if (rcc == null) {
+				log.error("Unable to record " + family_id);
+			} else {
+				writeFixture(new File(fixture_dir, family_id + SUFFIX), rcc);
+			}
+		}
+	}
+
+	/**
+	 * Times opening every fixture family through PantherServerAdapter, the same way PaintManager does
+	 */
+	public void benchmark(int repeats) {
+		long family_cache_limit = PaintConfig.inst().family_cache_limit;
+		PaintConfig.inst().family_cache_limit = 0;
+		PantherServerAdapter adapter = PantherServerAdapter.inst();
+		PantherDbInfo.setFixedInfo(adapter.getFixedInfoFromServer());
+		List<String> ids = getFamilyIDs();
+		long start = System.currentTimeMillis();
+		int opened = 0;
+		for (int i = 0; i < repeats; i++) {
+			for (String family_id : ids) {
+				long family_start = System.currentTimeMillis();
+				if (adapter.getRawPantherFam(LoginUtil.getUserInfo(), family_id) != null) {
+					opened++;
+				}
+				log.info(family_id + " took " + (System.currentTimeMillis() - family_start) + "ms");
+			}
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		log.info("Opened " + opened + " families in " + elapsed + "ms, " + (opened * 1000f / elapsed) + " families/s");
+		PaintConfig.inst().family_cache_limit = family_cache_limit;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: LocalPantherServer record|serve|bench <fixture dir> [family IDs|port|repeats]");
+			return;
+		}
+		File fixture_dir = new File(args[1]);
+		if (args[0].equals("record")) {
+			List<String> ids = new ArrayList<String>();
+			for (int i = 2; i < args.length; i++) {
+				ids.add(args[i]);
+			}
+			record(fixture_dir, ids);
+			return;
+		}
+		LocalPantherServer local = new LocalPantherServer(fixture_dir);
+		local.setLatency(Long.getLong("panther.latency", 0));
+		local.setBandwidth(Long.getLong("panther.bandwidth", 0));
+		if (args[0].equals("serve")) {
+			local.start(args.length > 2 ? Integer.parseInt(args[2]) : 0);
+		} else if (args[0].equals("bench")) {
+			local.start(0);
+			local.useForPaint();
+			local.benchmark(args.length > 2 ? Integer.parseInt(args[2]) : 1);
+			local.stop();
+			System.exit(0);
+		}
+	}
+}
@@ -36,18 +36,47 @@ public class PantherDbInfo {
 
 	protected static Logger log = Logger.getLogger(PantherDbInfo.class);
 
-	private static FixedInfo fixedInfo;    // Information from server/file system
+	private static volatile FixedInfo fixedInfo;    // Information from server/file system
 
 	/*
 	 * Members associated with upload version. 
 	 * Hashtable of hashtables.  
 	 * First hashtable level contains database names to upload hashtable.  
 	 * Second hashtable level contains upload version number to vector of upload version string and release date.
-	 */ 
-	protected static Hashtable<String, Hashtable<String, Vector<String>>> dbToUPLInfo;
-	private static String currentDB;
-	private static String currentVersionKey;
-	
+	 *
+	 * The FixedInfo is refreshed in the background while other threads are asking for the
+	 * current version, so the three are only ever replaced together, as one UploadVersion.
+	 */
+	private static final class UploadVersion {
+		final Hashtable<String, Hashtable<String, Vector<String>>> dbToUPLInfo;
+		final String currentDB;
+		final String currentVersionKey;
+
+		UploadVersion(Hashtable<String, Hashtable<String, Vector<String>>> dbToUPLInfo, String currentDB, String currentVersionKey) {
+			this.dbToUPLInfo = dbToUPLInfo;
+			this.currentDB = currentDB;
+			this.currentVersionKey = currentVersionKey;
+		}
+
+		String getDbAndVersionKey() {
+			if (currentDB != null && currentVersionKey != null)
+				return currentDB + PIPE + currentVersionKey;
+			else 
+				return null;
+		}
+
+		String getCurrentVersionName() {
+			if (dbToUPLInfo != null && currentDB != null && currentVersionKey != null)
+				return dbToUPLInfo.get(currentDB).get(currentVersionKey).firstElement();
+			else
+				return "";
+		}
+	}
+
+	private static final UploadVersion NO_VERSION = new UploadVersion(null, null, null);
+
+	private static volatile UploadVersion upload = NO_VERSION;
+
 	private static final String PIPE = "|";
 
 	// Exists only to defeat instantiation.
@@ -71,17 +100,19 @@ public class PantherDbInfo {
 	 * @see
 	 */
 	public static String getDbAndVersionName() {
-		if (currentDB != null && currentVersionKey != null)
-			return currentDB + PIPE + getCurrentVersionName();
+		UploadVersion current = upload;
+		if (current.currentDB != null && current.currentVersionKey != null)
+			return current.currentDB + PIPE + current.getCurrentVersionName();
 		else 
 			return null;
 	}
 
 	public static String getVersionKey() {
-		return currentVersionKey;
+		return upload.currentVersionKey;
 	}
 	
 	public static String getCurrentDB() {
+		String currentDB = upload.currentDB;
 		if (currentDB != null)
 			return currentDB;
 		else
@@ -89,33 +120,33 @@ public class PantherDbInfo {
 	}
 
 	public static String getDbAndVersionKey() {
-		if (currentDB != null && currentVersionKey != null)
-			return currentDB + PIPE + currentVersionKey;
-		else 
-			return null;	
+		return upload.getDbAndVersionKey();
 	}
 	
 	public static String getCurrentVersionName() {
-		if (dbToUPLInfo != null && currentDB != null && currentVersionKey != null)
-			return dbToUPLInfo.get(currentDB).get(currentVersionKey).firstElement();
-		else
-			return "";
+		return upload.getCurrentVersionName();
 	}
 
 	public static Hashtable<String, Hashtable<String, Vector<String>>> getVersions() {
-		return dbToUPLInfo;
+		return upload.dbToUPLInfo;
 	}
 
-	public static String setFixedInfo(FixedInfo fi) {
+	/**
+	 * Works out the upload version from the FixedInfo and makes it the current one.
+	 * If the FixedInfo cannot be used the version already in use, if any, is kept.
+	 */
+	public static synchronized String setFixedInfo(FixedInfo fi) {
+		if (fi != null && fi == fixedInfo && upload.getDbAndVersionKey() != null) {
+			// Already set up from this very FixedInfo
+			return "";
+		}
 		String error_msg = "";
-		dbToUPLInfo = null;
-		currentDB = null;
-		currentVersionKey = null;
 		String version_pref = uploadVersion;
 		if (fi != null) {
-			fixedInfo = fi;
-			dbToUPLInfo = (Hashtable<String, Hashtable<String, Vector<String>>>) fixedInfo.getDbToUploadInfo();
+			Hashtable<String, Hashtable<String, Vector<String>>> dbToUPLInfo = (Hashtable<String, Hashtable<String, Vector<String>>>) fi.getDbToUploadInfo();
 			if (dbToUPLInfo != null) {
+				String currentDB = null;
+				String currentVersionKey = null;
 				// Get upl version from server
 				Set<String> db_names = dbToUPLInfo.keySet();
 				for (String db_name : db_names) {
@@ -134,7 +165,16 @@ public class PantherDbInfo {
 						}
 					}
 				}
-				uploadVersion =getDbAndVersionName();
+				UploadVersion latest = new UploadVersion(dbToUPLInfo, currentDB, currentVersionKey);
+				UploadVersion current = upload;
+				// Readers keep seeing the same version unless the server has really moved on
+				if (current.getDbAndVersionKey() == null
+						|| !current.getDbAndVersionKey().equals(latest.getDbAndVersionKey())
+						|| !current.getCurrentVersionName().equals(latest.getCurrentVersionName())) {
+					upload = latest;
+				}
+				fixedInfo = fi;
+				uploadVersion = getDbAndVersionName();
 			} else {
 				error_msg = "Unable to retrieve upload version information from Panther DB server";
 			}
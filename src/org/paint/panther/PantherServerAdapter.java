@@ -21,25 +21,25 @@
 package org.paint.panther;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.bbop.phylo.model.Family;
 import org.bbop.phylo.model.Tree;
 import org.bbop.phylo.panther.PantherAdapter;
 import org.bbop.phylo.panther.ParsingHack;
+import org.paint.displaymodel.CompactTree;
 import org.paint.displaymodel.DisplayBioentity;
+import org.paint.displaymodel.TreeTraversal;
 import org.paint.gui.event.EventManager;
 import org.paint.gui.event.ProgressEvent;
 import org.paint.util.LoginUtil;
@@ -62,11 +62,6 @@ public class PantherServerAdapter extends PantherAdapter {
 	public static final String MSG_ERROR_CONCAT = "Server has returned the following error:  ";
 	public static final String MSG_SUCCESS = new String();
 
-	private static final String SERVLET_CONNECTION_CONTENT_TYPE = "Content-Type";
-	private static final String SERVLET_CONNECTION_OBJECT_TYPE_JAVA = "java/object";
-	private static final String SERVLET_REQUEST_PROPERTY_COOKIE = "Cookie";
-	private static final String SERVLET_PATH = "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet?action=";
-
 	public static final String REQUEST_SEARCH_GENE_NAME = "searchGeneName";
 	public static final String REQUEST_SEARCH_GENE_EXT_ID = "searchGeneExtId";
 	public static final String REQUEST_SEARCH_PROTEIN_EXT_ID = "searchProteinExtId";
@@ -77,6 +72,9 @@ public class PantherServerAdapter extends PantherAdapter {
 	public static final String REQUEST_LOCK_UNLOCK_BOOKS = "LockUnLockBooks";
 	public static final String REQUEST_MY_BOOKS = "MyBooks";
 
+	public static final String REQUEST_FIXED_INFO = "FixedInfo";
+	public static final String REQUEST_BOOK_LIST = "BookList";
+	public static final String REQUEST_USER_INFO = "GetUserInfo";
 	public static final String REQUEST_OPEN_BOOK = "OpenBook";
 	public static final String REQUEST_OPEN_BOOK_FOR_GO_USER = "openBookForGOUsr";
 	public static final String REQUEST_CLS_INFO = "requestClsInfo";
@@ -96,6 +94,15 @@ public class PantherServerAdapter extends PantherAdapter {
 
 	private static PantherServerAdapter INSTANCE = null;
 
+	private static ExecutorService request_pool;
+	private static ScheduledExecutorService deadline_timer;
+
+	/*
+	 * The nodes of the tree being read keep their display state together in here.
+	 * Only set while the tree is parsed, so the adapter does not hold on to the family afterwards.
+	 */
+	private CompactTree compact_tree;
+
 	public static synchronized PantherServerAdapter inst() {
 		if (INSTANCE == null) {
 			INSTANCE = new PantherServerAdapter();
@@ -103,41 +110,105 @@ public class PantherServerAdapter extends PantherAdapter {
 		return INSTANCE;
 	}
 
+	/**
+	 * Runs the request in the background.
+	 *
+	 * @param deadline milliseconds after which the request is cancelled, 0 for no deadline
+	 */
+	public <V> ServerRequest<V> submit(Callable<V> callable, long deadline) {
+		final ServerRequest<V> request = new ServerRequest<V>(callable);
+		synchronized (PantherServerAdapter.class) {
+			if (request_pool == null) {
+				ThreadFactory daemons = new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "panther-request-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				};
+				request_pool = Executors.newCachedThreadPool(daemons);
+				deadline_timer = Executors.newSingleThreadScheduledExecutor(daemons);
+			}
+		}
+		if (deadline > 0) {
+			request.setDeadline(deadline_timer.schedule(new Runnable() {
+				public void run() {
+					if (request.expire()) {
+						LOG.warn("PANTHER server request timed out");
+					}
+				}
+			}, deadline, TimeUnit.MILLISECONDS));
+		}
+		request_pool.execute(request);
+		return request;
+	}
+
 	public boolean fetchTree(Family family, Tree tree) {
 		boolean ok = false;
 		if (family != null) {
 			RawComponentContainer rcc = PantherServerAdapter.inst().getRawPantherFam(LoginUtil.getUserInfo(), family.getFamily_name());
 			if (rcc != null){
 				family.setDescription(rcc.getName());
-			    
+
+				/*
+				 * The family keeps list views straight onto the arrays that were deserialized,
+				 * rather than copies of them, so the largest families are not held twice
+				 */
 				Vector<String[]> info = ((Vector<String[]>) rcc.getTree());
-				family.setTreeContent(new ArrayList<String>(Arrays.asList(info.elementAt(0))));
-				
-				family.setAttrContent(new ArrayList<String>(Arrays.asList(rcc.getAttributeTable())));
+				family.setTreeContent(Arrays.asList(info.elementAt(0)));
+
+				final List<String> attr_content = Arrays.asList(rcc.getAttributeTable());
+				family.setAttrContent(attr_content);
 
 				info = (Vector<String[]>) rcc.getMSA();
 				if (info != null && info.size() > 0) {
-					family.setMsaContent(new ArrayList<String>(Arrays.asList(info.elementAt(0))));
+					family.setMsaContent(Arrays.asList(info.elementAt(0)));
 				}
 				if (info != null && info.size() > 1) {
-					family.setWtsContent(new ArrayList<String>(Arrays.asList(info.elementAt(1))));
+					family.setWtsContent(Arrays.asList(info.elementAt(1)));
 				}
+				rcc = null;
 
-				Bioentity root = parsePantherTree(family.getTreeContent());
+				// Tokenizing the attribute table does not need the tree, so do it while the tree is parsed
+				ServerRequest<List<List<String>>> attr_rows = submit(new Callable<List<List<String>>>() {
+					public List<List<String>> call() {
+						return ParsingHack.parsePantherAttr(attr_content);
+					}
+				}, 0);
+
+				CompactTree node_store = new CompactTree();
+				Bioentity root;
+				compact_tree = node_store;
+				try {
+					root = parsePantherTree(family.getTreeContent());
+				} finally {
+					compact_tree = null;
+				}
 		        recordOrigChildOrder(root);
+		        node_store.trim();
 
 				if (root != null) {
 					tree.growTree(root);
 
 					// Load the attr file to obtain the PTN #s
-					List<List<String>> rows = ParsingHack.parsePantherAttr(family.getAttrContent());
+					List<List<String>> rows;
+					try {
+						rows = attr_rows.get();
+					} catch (Exception e) {
+						LOG.warn("Parsing attribute table in the background failed: " + e.getMessage());
+						rows = ParsingHack.parsePantherAttr(attr_content);
+					}
 					decorateNodes(rows, tree);
 
 					if (tree.getRoot().getNcbiTaxonId() == null) {
 						String taxon = TaxonFinder.getTaxonID("LUCA");
 						tree.getRoot().setNcbiTaxonId(taxon);
 					}
+					shareTaxa(root, node_store);
 					ok = true;
+				} else {
+					attr_rows.cancel(true);
 				}
 			}
 		}
@@ -145,7 +216,12 @@ public class PantherServerAdapter extends PantherAdapter {
 	}
 
 	protected Bioentity createNode() {
-		return new DisplayBioentity(true);
+		CompactTree node_store = compact_tree;
+		if (node_store == null) {
+			// Not part of a tree being read
+			return new DisplayBioentity(true);
+		}
+		return new DisplayBioentity(node_store, true);
 	}
 	
 	/**
@@ -162,7 +238,13 @@ public class PantherServerAdapter extends PantherAdapter {
 	 *
 	 * @see
 	 */
-	public RawComponentContainer getRawPantherFam(Vector<? extends Object> userInfo, String familyID) {
+	public RawComponentContainer getRawPantherFam(Vector<? extends Object> userInfo, final String familyID) {
+
+		RawComponentContainer cached = FamilyCache.inst().get(familyID);
+		if (cached != null) {
+			LOG.info("Opening " + familyID + " from local family cache");
+			return cached;
+		}
 
 		Vector  objs = new Vector();
 
@@ -185,47 +267,111 @@ public class PantherServerAdapter extends PantherAdapter {
 			return null;
 		}
 
-		RawComponentContainer container = (RawComponentContainer) output.elementAt(1);
+		final RawComponentContainer container = (RawComponentContainer) output.elementAt(1);
+		// Writing the cache entry can overlap with parsing the family
+		submit(new Callable<Void>() {
+			public Void call() {
+				FamilyCache.inst().put(familyID, container);
+				return null;
+			}
+		}, 0);
 
 		return container;
 
 	}
 
+	public ServerRequest<RawComponentContainer> getRawPantherFamAsync(final Vector<? extends Object> userInfo, final String familyID, long deadline) {
+		return submit(new Callable<RawComponentContainer>() {
+			public RawComponentContainer call() {
+				return getRawPantherFam(userInfo, familyID);
+			}
+		}, deadline);
+	}
+
 	public Vector searchGeneName(Object sendInfo,
 			String sessionIdName,
 			String sessionIdValue) {
-		return doSearch(PANTHER_URL, REQUEST_SEARCH_GENE_NAME,
+		return doSearch(REQUEST_SEARCH_GENE_NAME,
 				sendInfo, sessionIdName, sessionIdValue);
 	}
 
 	public Vector searchGeneExtId(Object sendInfo,
 			String sessionIdName,
 			String sessionIdValue) {
-		return doSearch(PANTHER_URL, REQUEST_SEARCH_GENE_EXT_ID,
+		return doSearch(REQUEST_SEARCH_GENE_EXT_ID,
 				sendInfo, sessionIdName, sessionIdValue);
 	}
 
 	public Vector searchProteinExtId(Object sendInfo,
 			String sessionIdName,
 			String sessionIdValue) {
-		return doSearch(PANTHER_URL, REQUEST_SEARCH_PROTEIN_EXT_ID,
+		return doSearch(REQUEST_SEARCH_PROTEIN_EXT_ID,
 				sendInfo, sessionIdName, sessionIdValue);
 	}
 
 	public Vector searchDefinition(Object sendInfo,
 			String sessionIdName,
 			String sessionIdValue) {
-		return doSearch(PANTHER_URL, REQUEST_SEARCH_DEFINITION,
+		return doSearch(REQUEST_SEARCH_DEFINITION,
 				sendInfo, sessionIdName, sessionIdValue);
 	}
 
 	public Vector searchAllBooks(Object sendInfo,
 			String sessionIdName,
 			String sessionIdValue) {
-		return doSearch(PANTHER_URL, REQUEST_SEARCH_ALL_BOOKS,
+		return doSearch(REQUEST_SEARCH_ALL_BOOKS,
 				sendInfo, sessionIdName, sessionIdValue);
 	}
 
+	public ServerRequest<Vector> searchGeneNameAsync(Object sendInfo,
+			String sessionIdName,
+			String sessionIdValue,
+			long deadline) {
+		return doSearchAsync(REQUEST_SEARCH_GENE_NAME,
+				sendInfo, sessionIdName, sessionIdValue, deadline);
+	}
+
+	public ServerRequest<Vector> searchGeneExtIdAsync(Object sendInfo,
+			String sessionIdName,
+			String sessionIdValue,
+			long deadline) {
+		return doSearchAsync(REQUEST_SEARCH_GENE_EXT_ID,
+				sendInfo, sessionIdName, sessionIdValue, deadline);
+	}
+
+	public ServerRequest<Vector> searchProteinExtIdAsync(Object sendInfo,
+			String sessionIdName,
+			String sessionIdValue,
+			long deadline) {
+		return doSearchAsync(REQUEST_SEARCH_PROTEIN_EXT_ID,
+				sendInfo, sessionIdName, sessionIdValue, deadline);
+	}
+
+	public ServerRequest<Vector> searchDefinitionAsync(Object sendInfo,
+			String sessionIdName,
+			String sessionIdValue,
+			long deadline) {
+		return doSearchAsync(REQUEST_SEARCH_DEFINITION,
+				sendInfo, sessionIdName, sessionIdValue, deadline);
+	}
+
+	public ServerRequest<Vector> searchAllBooksAsync(Object sendInfo,
+			String sessionIdName,
+			String sessionIdValue,
+			long deadline) {
+		return doSearchAsync(REQUEST_SEARCH_ALL_BOOKS,
+				sendInfo, sessionIdName, sessionIdValue, deadline);
+	}
+
+	private ServerRequest<Vector> doSearchAsync(final String actionRequest, final Object sendInfo,
+			final String sessionIdName, final String sessionIdValue, long deadline) {
+		return submit(new Callable<Vector>() {
+			public Vector call() {
+				return doSearch(actionRequest, sendInfo, sessionIdName, sessionIdValue);
+			}
+		}, deadline);
+	}
+
 	private void fireProgressChange(String message, int percentageDone, ProgressEvent.Status status) {
 		ProgressEvent event = new ProgressEvent(PantherServerAdapter.class, message, percentageDone, status);
 		EventManager.inst().fireProgressEvent(event);
@@ -235,8 +381,23 @@ public class PantherServerAdapter extends PantherAdapter {
 		fireProgressChange(message, percentageDone, ProgressEvent.Status.RUNNING);
 	}
 
-	private Vector doSearch(String servletURL, String actionRequest, Object sendInfo, String sessionIdName, String sessionIdValue) {
-		Object serverOutput = sendAndReceiveZip(servletURL, actionRequest, sendInfo, sessionIdName, sessionIdValue);
+	private Vector doSearch(String actionRequest, Object sendInfo, String sessionIdName, String sessionIdValue) {
+		/*
+		 * The list of all books has to come from the server each time, it is how
+		 * the BookCatalog finds out about changes
+		 */
+		String cache_key = REQUEST_SEARCH_ALL_BOOKS.equals(actionRequest) ? null : SearchCache.getKey(actionRequest, sendInfo);
+		Vector cached = SearchCache.inst().get(cache_key);
+		if (cached != null) {
+			return cached;
+		}
+		Vector result = doSearchOnServer(actionRequest, sendInfo, sessionIdName, sessionIdValue);
+		SearchCache.inst().put(cache_key, result);
+		return result;
+	}
+
+	private Vector doSearchOnServer(String actionRequest, Object sendInfo, String sessionIdName, String sessionIdValue) {
+		Object serverOutput = sendAndReceiveZip(actionRequest, sendInfo, sessionIdName, sessionIdValue);
 		Vector returnInfo = new Vector();
 		if (null == serverOutput) {
 			returnInfo.add(SERVER_ERROR);
@@ -262,73 +423,20 @@ public class PantherServerAdapter extends PantherAdapter {
 	}
 
 
-	protected Object sendAndReceiveZip(String servletURL, String actionRequest, Object sendInfo, String sessionIdName, String sessionIdValue) {
-		String message = null;
-		Object            outputFromServlet = null;
-		try{
-
-			String progressMessage = "Fetching zip data";
-			fireProgressChange(progressMessage, 0, ProgressEvent.Status.START);
-
-			// connect to the servlet
-			URL                     servlet =
-					new URL(servletURL +  SERVLET_PATH + actionRequest);
-			java.net.URLConnection  servletConnection = servlet.openConnection();
-
-			servletConnection.setRequestProperty(SERVLET_CONNECTION_CONTENT_TYPE, SERVLET_CONNECTION_OBJECT_TYPE_JAVA);
-
-			// Set the session id, if necessary
-			if ((null != sessionIdName) && (null != sessionIdValue)){
-				servletConnection.setRequestProperty(SERVLET_REQUEST_PROPERTY_COOKIE, sessionIdName + "=".concat(sessionIdValue));
-			}
-
-			// Connection should ignore caches if any
-			servletConnection.setUseCaches(false);
-
-			// Indicate sending and receiving information from the server
-			servletConnection.setDoInput(true);
-			servletConnection.setDoOutput(true);
-			ObjectOutputStream  objectOutputStream = new ObjectOutputStream(new GZIPOutputStream(servletConnection.getOutputStream()));
-			fireProgressChange(progressMessage, 50);
-
-			objectOutputStream.writeObject(sendInfo);
-			objectOutputStream.flush();
-			objectOutputStream.close();
-			ObjectInputStream servletOutput = new ObjectInputStream(new GZIPInputStream(servletConnection.getInputStream()));
-			outputFromServlet = servletOutput.readObject();
+	protected Object sendAndReceiveZip(String actionRequest, Object sendInfo, String sessionIdName, String sessionIdValue) {
+		String progressMessage = "Fetching zip data";
+		fireProgressChange(progressMessage, 0, ProgressEvent.Status.START);
+		Object outputFromServlet = request(actionRequest, sendInfo, true, sessionIdName, sessionIdValue);
+		if (outputFromServlet != null) {
 			fireProgressChange(progressMessage, 100, ProgressEvent.Status.END);
-
-			servletOutput.close();
-			return outputFromServlet;
 		}
-		catch (MalformedURLException muex){
-			message = ("MalformedURLException " + muex.getMessage()
-					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
-			muex.printStackTrace();
-		}
-		catch (IOException ioex){
-			message = ("IOException " + ioex.getMessage()
-					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
-		}
-		catch (Exception e){
-			message = ("Exception " + e.getMessage()
-					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
-		}      
-		if (message != null) {
-			// Oh dear
-			EventManager.inst().fireProgressEvent(new ProgressEvent(this, message, 0, ProgressEvent.Status.FAIL));
-		}
-		return outputFromServlet;			
+		return outputFromServlet;
 	}
 
 	/**
 	 * Method declaration
 	 *
 	 *
-	 * @param servletURL
 	 * @param actionRequest
 	 * @param sendInfo
 	 * @param sessionIdName
@@ -340,90 +448,54 @@ public class PantherServerAdapter extends PantherAdapter {
 	 */
 	public Object sendAndReceive(String actionRequest, Object sendInfo,
 			String sessionIdName, String sessionIdValue){
+		return request(actionRequest, sendInfo, false, sessionIdName, sessionIdValue);
+	}
+
+	/*
+	 * All servlet calls end up here, so that failures are reported the same way
+	 * regardless of which action was requested.
+	 * Passing null for sendInfo issues a GET with no request body.
+	 */
+	private Object request(String actionRequest, Object sendInfo, boolean compress,
+			String sessionIdName, String sessionIdValue) {
 		String message = null; // if no message, then it's all lovely
-		Object            outputFromServlet = null;
-		try{
-			// connect to the servlet
-			URL                     servlet =
-					new URL(PANTHER_URL + "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet?action="
-							+ actionRequest);
-			java.net.URLConnection  servletConnection = servlet.openConnection();
-
-			servletConnection.setRequestProperty("Content-Type", "application/octet-stream");
-
-			// Set the session id, if necessary
-			if ((null != sessionIdName) && (null != sessionIdValue)){
-				servletConnection.setRequestProperty("Cookie", sessionIdName + "=".concat(sessionIdValue));
+		Object outputFromServlet = null;
+		try {
+			if (sendInfo == null) {
+				outputFromServlet = ServletTransport.inst().get(actionRequest);
+			} else {
+				outputFromServlet = ServletTransport.inst().post(actionRequest, sendInfo, compress, sessionIdName, sessionIdValue);
 			}
-
-			// Connection should ignore caches if any
-			servletConnection.setUseCaches(false);
-
-			// Indicate sending and receiving information from the server
-			servletConnection.setDoInput(true);
-			servletConnection.setDoOutput(true);
-			ObjectOutputStream  objectOutputStream = new ObjectOutputStream(servletConnection.getOutputStream());
-
-			objectOutputStream.writeObject(sendInfo);
-			objectOutputStream.flush();
-			objectOutputStream.close();
-			ObjectInputStream servletOutput = new ObjectInputStream(new GZIPInputStream(servletConnection.getInputStream()));
-			outputFromServlet= servletOutput.readObject();
-
-			servletOutput.close();
-		}
-		catch (MalformedURLException muex){
-			message = ("MalformedURLException " + muex.getMessage()
-					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
-			muex.printStackTrace();
 		}
 		catch (IOException ioex){
 			message = ("IOException " + ioex.getMessage()
 					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
 		}
 		catch (Exception e){
 			message = ("Exception " + e.getMessage()
 					+ " has been returned while sending and receiving information from server");
-			System.out.println(message);
+		}
+		if (message != null && ServletTransport.inst().isAborted()) {
+			// Cancelled by the caller, so nobody is waiting to hear about it
+			LOG.debug(actionRequest + " cancelled");
+			message = null;
 		}
 		if (message != null) {
 			// Oh dear
+			LOG.error(actionRequest + ": " + message);
+			setServerStatus(message);
 			EventManager.inst().fireProgressEvent(new ProgressEvent(this, message, 0, ProgressEvent.Status.FAIL));
 		}
-		return outputFromServlet;			
+		return outputFromServlet;
 	}
 
 	public FixedInfo getFixedInfoFromServer() {
-		Vector objs = null;
 		server_status = "";
-		try {
-			// try to get if from the session
-			// connect to the servlet
-			LOG.info("Logging in to Panther URL: " + PANTHER_URL);
-			URL servlet = new URL(PANTHER_URL + "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet?action=FixedInfo");
-			URLConnection servletConnection = servlet.openConnection();
-
-			// Don't used a cached version of URL connection.
-			servletConnection.setUseCaches(false);
-			servletConnection.setDefaultUseCaches(false);
-			//
-			// The servlet will return a serialized vector containing a DataTransfer object
-			//
-			ObjectInputStream inputFromServlet = new ObjectInputStream(new GZIPInputStream(servletConnection.getInputStream()));
-			objs = (Vector) inputFromServlet.readObject();
-			inputFromServlet.close();
-		}
-		catch (MalformedURLException muex){
-			setServerStatus(muex.getLocalizedMessage());
-		}
-		catch (IOException ioex) {
-			setServerStatus(ioex.getLocalizedMessage());
-		}
-		catch (ClassNotFoundException cnfex){
-			setServerStatus(cnfex.getLocalizedMessage());
-		}
+		LOG.info("Logging in to Panther URL: " + ServletTransport.inst().getServerURL());
+		//
+		// The servlet will return a serialized vector containing a DataTransfer object
+		//
+		Vector objs = (Vector) request(REQUEST_FIXED_INFO, null, false, null, null);
 		if (null != objs) {
 			TransferInfo ti = (TransferInfo)objs.elementAt(0);
 			if (0 != ti.getInfo().length()) {
@@ -435,6 +507,22 @@ public class PantherServerAdapter extends PantherAdapter {
 		return null;
 	}         
 
+	public ServerRequest<FixedInfo> getFixedInfoFromServerAsync(long deadline) {
+		return submit(new Callable<FixedInfo>() {
+			public FixedInfo call() {
+				return getFixedInfoFromServer();
+			}
+		}, deadline);
+	}
+
+	public ServerRequest<Vector<? extends Object>> listFamiliesAsync(final Vector<? extends Object> vector, final String dbClsId, long deadline) {
+		return submit(new Callable<Vector<? extends Object>>() {
+			public Vector<? extends Object> call() {
+				return listFamilies(vector, dbClsId);
+			}
+		}, deadline);
+	}
+
 	public Vector<? extends Object> listFamilies(Vector<? extends Object> vector, String dbClsId) {
 		Vector  objs = new Vector();
 
@@ -442,81 +530,50 @@ public class PantherServerAdapter extends PantherAdapter {
 		objs.addElement(dbClsId);
 		Vector  returnInfo = new Vector();
 
-		try{
-
-			// connect to the servlet
-			URL               servlet =
-					new URL(PANTHER_URL
-							+ "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet?action=BookList");
-			HttpURLConnection servletConnection = (HttpURLConnection) servlet.openConnection();
-
-			servletConnection.setRequestMethod("POST");
-
-			// Connection should ignore caches if any
-			servletConnection.setUseCaches(false);
-
-			// Indicate sending and receiving information from the server
-			servletConnection.setDoInput(true);
-			servletConnection.setDoOutput(true);
-			servletConnection.setRequestProperty("Content-Type", "java/object");
-			ObjectOutputStream  objectOutputStream = new ObjectOutputStream(servletConnection.getOutputStream());
-
-			objectOutputStream.writeObject(objs);
-			objectOutputStream.flush();
-			objectOutputStream.close();
-
-			ObjectInputStream inputFromServlet =
-					new ObjectInputStream(new GZIPInputStream(servletConnection.getInputStream()));
-			Object            inputFromServer = inputFromServlet.readObject();
-
-			inputFromServlet.close();
-			if (null != inputFromServer){
-				TransferInfo  ti = (TransferInfo) ((Vector) inputFromServer).elementAt(0);
-
-				if (0 != ti.getInfo().length()){
-					returnInfo.addElement(ti.getInfo());
-					return returnInfo;
-				}
-				Vector  books = (Vector) ((Vector) inputFromServer).elementAt(1);
-				String  bookList[] = new String[books.size()];
+		Object inputFromServer = request(REQUEST_BOOK_LIST, objs, false, null, null);
+		if (null != inputFromServer){
+			TransferInfo  ti = (TransferInfo) ((Vector) inputFromServer).elementAt(0);
 
-				books.copyInto(bookList);
-				returnInfo.addElement("");
-				returnInfo.addElement(bookList);
+			if (0 != ti.getInfo().length()){
+				returnInfo.addElement(ti.getInfo());
 				return returnInfo;
 			}
-			returnInfo.addElement("Server did not return any information");
-			return returnInfo;
-		}
-		catch (MalformedURLException muex){
-			muex.printStackTrace();
-			returnInfo.addElement("System error, please contact system administrator");
-			return returnInfo;
-		}
-		catch (IOException ioex){
-			ioex.printStackTrace();
-			returnInfo.addElement("System error, please contact system administrator");
-			return returnInfo;
-		}
-		catch (Exception e){
-			e.printStackTrace();
-			returnInfo.addElement("System error, please contact system administrator");
+			Vector  books = (Vector) ((Vector) inputFromServer).elementAt(1);
+			String  bookList[] = new String[books.size()];
+
+			books.copyInto(bookList);
+			returnInfo.addElement("");
+			returnInfo.addElement(bookList);
 			return returnInfo;
 		}
+		returnInfo.addElement("System error, please contact system administrator");
+		return returnInfo;
 	}
 
+    /*
+     * Most nodes share their taxon with many others, so keep one copy of each
+     */
+    private void shareTaxa(Bioentity node, final CompactTree node_store) {
+        new TreeTraversal().walk(node, new TreeTraversal.Visitor() {
+            @Override
+            public boolean enter(Bioentity child, int depth) {
+                String taxon = child.getNcbiTaxonId();
+                if (taxon != null) {
+                    child.setNcbiTaxonId(node_store.intern(taxon));
+                }
+                return true;
+            }
+        });
+    }
+
     private void recordOrigChildOrder(Bioentity node) {
-        if (null == node) {
-            return;
-        }
-
-        ((DisplayBioentity) node).setOriginalChildrenToCurrentChildren();
-        List<Bioentity> children = node.getChildren();
-        if (children != null) {
-            for (Bioentity child : children) {
-                recordOrigChildOrder(child);
+        new TreeTraversal().walk(node, new TreeTraversal.Visitor() {
+            @Override
+            public boolean enter(Bioentity child, int depth) {
+                ((DisplayBioentity) child).setOriginalChildrenToCurrentChildren();
+                return true;
             }
-        }
+        });
     }
     
 
@@ -0,0 +1,159 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+
+/**
+ * Recent results of the family searches, so that running the same search again
+ * does not go back to the server.
+ *
+ * Results are keyed by the kind of search, the search term and the upload version, and
+ * only successful results are kept. At most PaintConfig.search_cache_size results are held,
+ * the least recently used going first, and none is used once it is older than
+ * PaintConfig.search_cache_ttl minutes since the curation status of a family can change.
+ */
+public class SearchCache {
+
+	private static final Logger log = Logger.getLogger(SearchCache.class);
+
+	private static SearchCache INSTANCE = null;
+
+	private static class CachedResult {
+		final long created;
+		final Vector result;
+
+		CachedResult(Vector result) {
+			this.created = System.currentTimeMillis();
+			this.result = result;
+		}
+	}
+
+	private final LinkedHashMap<String, CachedResult> entries;
+	private long hits;
+	private long misses;
+
+	private SearchCache() {
+		entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				return size() > PaintConfig.inst().search_cache_size;
+			}
+		};
+	}
+
+	public static synchronized SearchCache inst() {
+		if (INSTANCE == null) {
+			INSTANCE = new SearchCache();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * @param sendInfo the search term and the DB/version key, as sent to the server
+	 * @return null if the search has to go to the server
+	 */
+	public static String getKey(String actionRequest, Object sendInfo) {
+		if (!(sendInfo instanceof Vector)) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(actionRequest);
+		for (Object field : (Vector) sendInfo) {
+			key.append('\n').append(field);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return a copy of the cached result, or null on a miss
+	 */
+	public synchronized Vector get(String key) {
+		if (key == null || PaintConfig.inst().search_cache_size <= 0) {
+			return null;
+		}
+		CachedResult entry = entries.get(key);
+		if (entry != null && isExpired(entry)) {
+			entries.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		if (log.isDebugEnabled()) {
+			log.debug("Search cache hit, " + hits + " hits and " + misses + " misses so far");
+		}
+		return copy(entry.result);
+	}
+
+	/**
+	 * Only results without an error message are kept
+	 */
+	public synchronized void put(String key, Vector result) {
+		if (key == null || PaintConfig.inst().search_cache_size <= 0 || result == null
+				|| result.size() < 2 || ((String) result.elementAt(0)).length() > 0) {
+			return;
+		}
+		entries.put(key, new CachedResult(copy(result)));
+		for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext(); ) {
+			if (isExpired(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private boolean isExpired(CachedResult entry) {
+		return System.currentTimeMillis() - entry.created > PaintConfig.inst().search_cache_ttl * 60 * 1000;
+	}
+
+	/*
+	 * Callers are free to change the vectors they get back (the dialog clears its
+	 * book list before each search), so the cache never hands out its own
+	 */
+	private static Vector copy(Vector result) {
+		Vector copy = new Vector(result);
+		if (copy.size() > 1 && copy.elementAt(1) instanceof Vector) {
+			copy.setElementAt(new Vector((Vector) copy.elementAt(1)), 1);
+		}
+		return copy;
+	}
+}
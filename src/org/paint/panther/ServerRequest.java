@@ -0,0 +1,132 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * A PANTHER server request running in the background.
+ *
+ * Cancelling the request also drops its connection to the servlet, so that a
+ * superseded search stops tying up both the client thread and the server.
+ * A request that runs past its deadline is cancelled the same way.
+ */
+public class ServerRequest<V> extends FutureTask<V> {
+
+	private final ServletTransport.Abort abort;
+	private ScheduledFuture<?> deadline;
+	private Runnable on_completion;
+	private boolean completion_sent = false;
+	private volatile boolean timed_out = false;
+
+	public ServerRequest(Callable<V> callable) {
+		super(callable);
+		abort = new ServletTransport.Abort();
+	}
+
+	@Override
+	public void run() {
+		ServletTransport.inst().bind(abort);
+		try {
+			super.run();
+		} finally {
+			ServletTransport.inst().unbind();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		abort.abort();
+		return super.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * Runs the given code on the event dispatch thread once the response has arrived,
+	 * or once the request has run past its deadline (see isTimedOut()).
+	 * Nothing is run if the request is cancelled.
+	 */
+	public void onCompletion(Runnable runnable) {
+		boolean send_now;
+		synchronized (this) {
+			on_completion = runnable;
+			send_now = isDone();
+		}
+		if (send_now) {
+			sendCompletion();
+		}
+	}
+
+	synchronized void setDeadline(ScheduledFuture<?> deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Gives up on the request because it ran past its deadline. Unlike a plain cancel,
+	 * whoever is waiting for the response is still told, so they can say it timed out.
+	 *
+	 * @return false if the request had already finished
+	 */
+	boolean expire() {
+		if (!cancel(true)) {
+			return false;
+		}
+		// The cancel skipped the completion, as it was not known to be a time out yet
+		timed_out = true;
+		sendCompletion();
+		return true;
+	}
+
+	/**
+	 * True if the request was given up on because it ran past its deadline
+	 */
+	public boolean isTimedOut() {
+		return timed_out;
+	}
+
+	@Override
+	protected void done() {
+		ScheduledFuture<?> timer;
+		synchronized (this) {
+			timer = deadline;
+			deadline = null;
+		}
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		sendCompletion();
+	}
+
+	private void sendCompletion() {
+		Runnable runnable;
+		synchronized (this) {
+			if (completion_sent || on_completion == null || (isCancelled() && !timed_out)) {
+				return;
+			}
+			completion_sent = true;
+			runnable = on_completion;
+		}
+		SwingUtilities.invokeLater(runnable);
+	}
+}
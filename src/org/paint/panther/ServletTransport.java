@@ -0,0 +1,256 @@
+/*
+ *
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse
+ * or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.paint.panther;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.paint.config.PaintConfig;
+
+/**
+ * The one place where PAINT opens connections to the PANTHER servlet.
+ *
+ * Requests are serialized java objects and responses are always gzipped serialized
+ * java objects. Response streams are read to the end and closed (never disconnected)
+ * so that the JVM's keep-alive cache can hand the same socket to the next request
+ * instead of paying for a new TCP handshake each time.
+ */
+public class ServletTransport {
+
+	private static final String SERVLET_PATH = "/servlet/com.sri.panther.paintServer.servlet.Client2Servlet?action=";
+	private static final String CONTENT_TYPE = "Content-Type";
+	private static final String CONTENT_ENCODING = "Content-Encoding";
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String CONNECTION = "Connection";
+	private static final String COOKIE = "Cookie";
+	private static final String OBJECT_TYPE_JAVA = "java/object";
+	private static final String GZIP = "gzip";
+	private static final String KEEP_ALIVE = "keep-alive";
+
+	private static final int BUF_SIZE = 64 * 1024;
+
+	private static final Logger log = Logger.getLogger(ServletTransport.class);
+
+	private static ServletTransport INSTANCE = null;
+
+	/*
+	 * The abort handle of the request running on this thread, if it was started asynchronously
+	 */
+	private static final ThreadLocal<Abort> current_abort = new ThreadLocal<Abort>();
+
+	private ServletTransport() {
+		/*
+		 * The keep-alive cache is sized from this property when HttpURLConnection is first used,
+		 * so it has to be set before the first request goes out.
+		 */
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(Math.max(1, PaintConfig.inst().server_max_connections)));
+		}
+		System.setProperty("http.keepAlive", "true");
+	}
+
+	public static synchronized ServletTransport inst() {
+		if (INSTANCE == null) {
+			INSTANCE = new ServletTransport();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Lets another thread stop a request that is blocked on the network.
+	 * Interrupting the thread is not enough since socket reads ignore interrupts,
+	 * so the connection itself is disconnected.
+	 */
+	public static class Abort {
+		private volatile boolean aborted = false;
+		private HttpURLConnection connection;
+
+		public void abort() {
+			HttpURLConnection active;
+			synchronized (this) {
+				aborted = true;
+				active = connection;
+			}
+			if (active != null) {
+				active.disconnect();
+			}
+		}
+
+		public boolean isAborted() {
+			return aborted;
+		}
+
+		private synchronized void setConnection(HttpURLConnection connection) throws InterruptedIOException {
+			if (aborted) {
+				throw new InterruptedIOException("Request was cancelled");
+			}
+			this.connection = connection;
+		}
+	}
+
+	void bind(Abort abort) {
+		current_abort.set(abort);
+	}
+
+	void unbind() {
+		current_abort.remove();
+	}
+
+	/**
+	 * True if the request running on the calling thread has been cancelled, in which case
+	 * any IOException it received is expected and need not be reported
+	 */
+	public boolean isAborted() {
+		Abort abort = current_abort.get();
+		return abort != null && abort.isAborted();
+	}
+
+	/**
+	 * The curation server unless PaintConfig.panther_url points somewhere else,
+	 * such as a LocalPantherServer
+	 */
+	public String getServerURL() {
+		String url = PaintConfig.inst().panther_url;
+		if (url == null || url.trim().length() == 0) {
+			url = PantherServerAdapter.PANTHER_URL;
+		}
+		return url.trim();
+	}
+
+	/**
+	 * Requests an action that does not take any input, e.g. FixedInfo
+	 */
+	public Object get(String actionRequest) throws IOException, ClassNotFoundException {
+		HttpURLConnection connection = openConnection(actionRequest);
+		connection.setRequestMethod("GET");
+		return receive(connection);
+	}
+
+	/**
+	 * Sends the serialized object to the servlet and returns whatever object it replies with.
+	 *
+	 * @param compress gzip the request body. The servlet only expects this for some actions
+	 * (the searches), for the rest it is controlled by PaintConfig.gzip_requests
+	 */
+	public Object post(String actionRequest, Object sendInfo, boolean compress,
+			String sessionIdName, String sessionIdValue) throws IOException, ClassNotFoundException {
+		HttpURLConnection connection = openConnection(actionRequest);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty(CONTENT_TYPE, OBJECT_TYPE_JAVA);
+
+		// Set the session id, if necessary
+		if ((null != sessionIdName) && (null != sessionIdValue)){
+			connection.setRequestProperty(COOKIE, sessionIdName + "=".concat(sessionIdValue));
+		}
+
+		boolean gzip = compress || PaintConfig.inst().gzip_requests;
+		if (gzip) {
+			connection.setRequestProperty(CONTENT_ENCODING, GZIP);
+		}
+
+		OutputStream body = new BufferedOutputStream(connection.getOutputStream(), BUF_SIZE);
+		if (gzip) {
+			body = new GZIPOutputStream(body, BUF_SIZE);
+		}
+		ObjectOutputStream objectOutputStream = new ObjectOutputStream(body);
+		try {
+			objectOutputStream.writeObject(sendInfo);
+			objectOutputStream.flush();
+		} finally {
+			objectOutputStream.close();
+		}
+		return receive(connection);
+	}
+
+	private HttpURLConnection openConnection(String actionRequest) throws IOException {
+		URL servlet = new URL(getServerURL() + SERVLET_PATH + actionRequest);
+		URLConnection connection = servlet.openConnection();
+		if (!(connection instanceof HttpURLConnection)) {
+			throw new IOException("Not an http URL: " + servlet);
+		}
+		HttpURLConnection http = (HttpURLConnection) connection;
+		http.setConnectTimeout(PaintConfig.inst().server_connect_timeout);
+		http.setReadTimeout(PaintConfig.inst().server_read_timeout);
+
+		// Connection should ignore caches if any
+		http.setUseCaches(false);
+		http.setDoInput(true);
+		http.setRequestProperty(ACCEPT_ENCODING, GZIP);
+		http.setRequestProperty(CONNECTION, KEEP_ALIVE);
+
+		Abort abort = current_abort.get();
+		if (abort != null) {
+			abort.setConnection(http);
+		}
+		return http;
+	}
+
+	private Object receive(HttpURLConnection connection) throws IOException, ClassNotFoundException {
+		int status = connection.getResponseCode();
+		if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			// The error body still has to be consumed for the socket to be reused
+			drainAndClose(connection.getErrorStream());
+			throw new IOException("Server returned HTTP " + status + " " + connection.getResponseMessage()
+					+ " for " + connection.getURL());
+		}
+		InputStream raw = connection.getInputStream();
+		try {
+			ObjectInputStream servletOutput = new ObjectInputStream(
+					new GZIPInputStream(new BufferedInputStream(raw, BUF_SIZE), BUF_SIZE));
+			return servletOutput.readObject();
+		} finally {
+			drainAndClose(raw);
+		}
+	}
+
+	private void drainAndClose(InputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte [] buf = new byte[BUF_SIZE];
+			while (in.read(buf) >= 0) {
+				// skip whatever the object stream did not need
+			}
+		} catch (IOException e) {
+			log.debug("Could not drain servlet response: " + e.getMessage());
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing more to be done
+			}
+		}
+	}
+}
@@ -1,24 +1,35 @@
 package org.paint.util;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
-import java.nio.CharBuffer;
-import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
-
+import org.paint.config.PaintConfig;
+import org.paint.gui.event.ConnectivityEvent;
+import org.paint.gui.event.EventManager;
+
+/**
+ * Keeps track of whether the network can be reached.
+ *
+ * A background thread probes URL_TO_CHECK on a schedule, more often (backing off
+ * from MIN_RETRY) while the connection is down, and fires a ConnectivityEvent whenever
+ * the state changes. Asking for the state never blocks unless a fresh check is forced,
+ * so it is safe to do from the event dispatch thread.
+ */
 public class InternetChecker {
 
 	private static final String URL_TO_CHECK = "http://www.google.com/";
-	private static final long CHECK_EVERY = 30 * 60 * 1000; /* 30 minutes */
+	private static final long MIN_RETRY = 5 * 1000;
+	private static final int PROBE_TIMEOUT = 10 * 1000;
 
-	private static final int BUF_SIZE = 1024;
 	private static InternetChecker ref;
-	private Date lastCheck;
-	private Boolean lastState;
+	private volatile Boolean lastState;
+	private ScheduledExecutorService monitor;
+	private long retry_delay = MIN_RETRY;
 	private final Logger log = Logger.getLogger(InternetChecker.class.getName());
 
 	public InternetChecker() {
@@ -27,60 +38,106 @@ public class InternetChecker {
 	public synchronized static InternetChecker getInstance() {
 		if (ref == null) {
 			ref = new InternetChecker();
+			ref.startMonitor();
 		}
 		return ref;
 	}
 
-	private boolean isStateValid() {
-		if (lastState == null)
-			return false;
-		if (lastCheck.getTime() > System.currentTimeMillis() + CHECK_EVERY)
-			return false;
-		return true;
-	}
-
+	/**
+	 * @return the state found by the most recent check. Until the first check has
+	 * finished the connection is assumed to be present.
+	 */
 	public boolean isConnectionPresent() {
-		if (!isStateValid()) {
-			checkConnection();
-		}
-		return lastState;
+		Boolean state = lastState;
+		return state == null || state.booleanValue();
 	}
 
+	/**
+	 * @param forceCheck probe the network now, on the calling thread, rather than
+	 * using the last known state. Do not force a check from the event dispatch thread.
+	 */
 	public boolean isConnectionPresent(boolean forceCheck) {
 		if (forceCheck)
-			invalidateState();
+			checkConnection();
 		return isConnectionPresent();
 	}
 
-	private void invalidateState() {
-		lastCheck = null;
-		lastState = null;
+	public void checkConnection() {
+		setState(probe());
 	}
 
-	public void checkConnection() {
-		lastCheck = new Date();
-		try {
-			URL url = new URL(URL_TO_CHECK);
-			URLConnection urlConnection = url.openConnection();
+	private synchronized void startMonitor() {
+		if (monitor != null)
+			return;
+		monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "connectivity-monitor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduleCheck(0);
+	}
 
-			InputStream inputStream = urlConnection.getInputStream();
-			Reader reader = new InputStreamReader(inputStream);
+	private void scheduleCheck(long delay) {
+		monitor.schedule(new Runnable() {
+			public void run() {
+				try {
+					checkConnection();
+				} catch (RuntimeException e) {
+					// e.g. from a connectivity listener, which must not stop the monitoring
+					log.error("Connectivity check failed", e);
+				} finally {
+					scheduleCheck(nextDelay());
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
 
-			StringBuilder contents = new StringBuilder();
-			CharBuffer buf = CharBuffer.allocate(BUF_SIZE);
+	private synchronized long nextDelay() {
+		long interval = Math.max(MIN_RETRY, PaintConfig.inst().connectivity_check_interval * 1000L);
+		if (isConnectionPresent()) {
+			retry_delay = MIN_RETRY;
+			return interval;
+		}
+		// back off while the network stays down
+		long delay = retry_delay;
+		retry_delay = Math.min(retry_delay * 2, interval);
+		return delay;
+	}
 
-			while (true) {
-				reader.read(buf);
-				if (!buf.hasRemaining())
-					break;
+	private void setState(boolean state) {
+		Boolean previous;
+		synchronized (this) {
+			previous = lastState;
+			lastState = state;
+		}
+		if (previous == null || previous.booleanValue() != state) {
+			if (!state)
+				log.warn("Internet connectivity not present.");
+			else if (previous != null)
+				log.info("Internet connectivity restored.");
+			EventManager.inst().fireConnectivityEvent(new ConnectivityEvent(this, state));
+		}
+	}
 
-				contents = contents.append(buf);
-			}
-			inputStream.close();
-			lastState = true;
+	private boolean probe() {
+		HttpURLConnection connection = null;
+		try {
+			URL url = new URL(URL_TO_CHECK);
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(PROBE_TIMEOUT);
+			connection.setReadTimeout(PROBE_TIMEOUT);
+			connection.setUseCaches(false);
+			// any answer at all means the network is there
+			connection.getResponseCode();
+			return true;
 		} catch (Exception e) {
-			log.warn("Internet connectivity not present.");
-			lastState = false;
+			return false;
+		} finally {
+			if (connection != null)
+				connection.disconnect();
 		}
 	}
 
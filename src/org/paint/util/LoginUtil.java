@@ -21,10 +21,15 @@
 package org.paint.util;
 
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
+import org.apache.log4j.Logger;
 import org.bbop.framework.GUIManager;
+import org.paint.panther.BookCatalog;
+import org.paint.panther.FixedInfoCache;
 import org.paint.panther.PantherDbInfo;
 import org.paint.panther.PantherServerAdapter;
 
@@ -33,8 +38,10 @@ import com.sri.panther.paintCommon.TransferInfo;
 
 public class LoginUtil {
 
+	private static final Logger log = Logger.getLogger(LoginUtil.class);
+
 	// stored when the settings are written into a property file
-	private static boolean       logged_in = false;  // Indicates user login status.  Note:  This information is not stored when the settings are written into a property file
+	private static volatile boolean logged_in = false;  // Indicates user login status.  Note:  This information is not stored when the settings are written into a property file
 	private static String username = "gouser";
 	private static String pw = "welcome";
 
@@ -54,18 +61,33 @@ public class LoginUtil {
 	 * @param results The first element in the vector is a String holding the user name to use.  The Second it an character array that contains the password.
 	 * 
 	 */
-	public static void login(String username, String pw) {
+	public static void login(final String username, final String pw) {
 		// Determine what databases and upl's are available from the server
 		// Get information that does not change.
 		logged_in = false;
+		String loginErrorMsg = "";
+
+		/*
+		 * A recent copy of the fixed information means we can go straight ahead
+		 * and check it, and the user, with the server in the background
+		 */
+		FixedInfo fi = FixedInfoCache.inst().getFresh();
+		if (fi != null && startWith(fi, username, pw, true)) {
+			return;
+		}
 
 		if (!InternetChecker.getInstance().isConnectionPresent(true)) {
+			// Families in the family cache can still be opened with the last information saved
+			loginWithStale(username, pw);
 			return;
 		}
-		String loginErrorMsg = "";
 
-		FixedInfo fi = PantherServerAdapter.inst().getFixedInfoFromServer();
+		// Startup may already be fetching it, in which case that answer will do
+		fi = FixedInfoCache.inst().fetchOrAwait();
 		if (fi == null){
+			if (loginWithStale(username, pw)) {
+				return;
+			}
 			loginErrorMsg = PantherServerAdapter.inst().getServerStatus();
 		} else {
 			loginErrorMsg = PantherDbInfo.setFixedInfo(fi);
@@ -80,32 +102,82 @@ public class LoginUtil {
 		}
 		if (loginErrorMsg.length() == 0) {
 			// Now that a valid database has been specified.  Verify user name and password from that database
-			Vector<Object> results = new Vector<Object>();
-			results.addElement(username);
-			results.addElement(pw.toCharArray());
-
-			Vector objs = new Vector();
-			objs.addElement(results);
-			objs.addElement(FixedInfo.getDb(PantherDbInfo.getDbAndVersionName()));
-
-			Object  o = PantherServerAdapter.inst().sendAndReceive("GetUserInfo", objs, null, null);
-
-			if (o == null) {
-				loginErrorMsg = "Unable to get user information";
-			} else {
-				Vector output = (Vector) o;
-				TransferInfo  ti = (TransferInfo) output.elementAt(0);
-				if (ti.getInfo() == null)
-					loginErrorMsg = "Unable to verify user information";
-				else
-					loginErrorMsg = ti.getInfo();
-			}
+			loginErrorMsg = verifyUser(username, pw);
 		}
 		logged_in = loginErrorMsg.length() == 0;
-		if (!logged_in)
+		if (logged_in)
+			BookCatalog.inst().open();
+		else
 			JOptionPane.showMessageDialog(GUIManager.getManager().getFrame(), loginErrorMsg);
 	}
 
+	/*
+	 * Goes ahead with the saved FixedInfo however old it is, for when the server cannot be reached.
+	 * There is no checking the user without the server, so that waits until the next login.
+	 */
+	private static boolean loginWithStale(String username, String pw) {
+		FixedInfo fi = FixedInfoCache.inst().getStale();
+		if (fi != null && startWith(fi, username, pw, false)) {
+			log.info("PANTHER server cannot be reached, using the server information saved earlier");
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Logs in with the FixedInfo straight away, checking it, and the user, with the server in the background
+	 */
+	private static boolean startWith(FixedInfo fi, final String username, final String pw, boolean verify) {
+		if (PantherDbInfo.setFixedInfo(fi).length() > 0) {
+			return false;
+		}
+		logged_in = true;
+		FixedInfoCache.inst().revalidate();
+		BookCatalog.inst().open();
+		if (verify) {
+			PantherServerAdapter.inst().submit(new Callable<Void>() {
+				public Void call() {
+					final String verifyErrorMsg = verifyUser(username, pw);
+					if (verifyErrorMsg.length() > 0) {
+						logged_in = false;
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								JOptionPane.showMessageDialog(GUIManager.getManager().getFrame(), verifyErrorMsg);
+							}
+						});
+					}
+					return null;
+				}
+			}, 0);
+		}
+		return true;
+	}
+
+	private static String verifyUser(String username, String pw) {
+		String loginErrorMsg;
+		Vector<Object> results = new Vector<Object>();
+		results.addElement(username);
+		results.addElement(pw.toCharArray());
+
+		Vector objs = new Vector();
+		objs.addElement(results);
+		objs.addElement(FixedInfo.getDb(PantherDbInfo.getDbAndVersionName()));
+
+		Object  o = PantherServerAdapter.inst().sendAndReceive(PantherServerAdapter.REQUEST_USER_INFO, objs, null, null);
+
+		if (o == null) {
+			loginErrorMsg = "Unable to get user information";
+		} else {
+			Vector output = (Vector) o;
+			TransferInfo  ti = (TransferInfo) output.elementAt(0);
+			if (ti.getInfo() == null)
+				loginErrorMsg = "Unable to verify user information";
+			else
+				loginErrorMsg = ti.getInfo();
+		}
+		return loginErrorMsg;
+	}
+
 	public static boolean getLoggedIn() {
 		return logged_in;
 	}
@@ -26,6 +26,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Insets;
 import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -33,8 +34,10 @@ import org.apache.log4j.Logger;
 import org.bbop.phylo.annotate.AnnotationUtil;
 import org.paint.config.PaintConfig;
 import org.paint.displaymodel.DisplayBioentity;
+import org.paint.displaymodel.RenderState;
 import org.paint.gui.AspectSelector;
 
+import owltools.gaf.Bioentity;
 import owltools.gaf.GeneAnnotation;
 
 public class RenderUtil {
@@ -46,6 +49,14 @@ public class RenderUtil {
 
 	private static HashMap<String, Color> ortho_colors;
 
+	private static final Font EXP_FONT = new Font(GuiConstant.DEFAULT_FONT.getFontName(), Font.PLAIN, GuiConstant.DEFAULT_FONT.getSize());
+	private static final Font EXP_SELECTED_FONT = new Font(GuiConstant.DEFAULT_FONT.getFontName(), Font.BOLD, GuiConstant.DEFAULT_FONT.getSize());
+
+	/*
+	 * Render states made before the last clearRenderState() are out of date
+	 */
+	private static int render_generation = 0;
+
 	public static void paintBorder(Graphics g, Rectangle r, Color bgColor, boolean selected) {
 		if (bgColor != null) {
 			g.setColor(bgColor);
@@ -134,18 +145,10 @@ public class RenderUtil {
 	}
 
 	public static Font getNodeFont(DisplayBioentity node) {
-		Font f = GuiConstant.DEFAULT_FONT;
-		//if (node.hasExpEvidence())
-		String aspect_name = AspectSelector.inst().getAspectCode();
-		List<GeneAnnotation> associations = AnnotationUtil.getAspectExpAssociations(node, aspect_name);
-		if (associations != null && associations.size() > 0) {
-			if (node.isSelected()) {
-				f = new Font(f.getFontName(), Font.BOLD, f.getSize());				
-			} else {
-				f = new Font(f.getFontName(), Font.PLAIN, f.getSize());
-			}
+		if (getRenderState(node).hasExpEvidence()) {
+			return node.isSelected() ? EXP_SELECTED_FONT : EXP_FONT;
 		}
-		return f;
+		return GuiConstant.DEFAULT_FONT;
 	}
 
 	public static Color annotationStatusColor(DisplayBioentity node, Color c) {
@@ -153,29 +156,83 @@ public class RenderUtil {
 	}
 
 	public static Color annotationStatusColor(DisplayBioentity node, Color c, boolean brighten) {
+		Color color = getRenderState(node).getStatusColor();
 		/*
 		 * Default is to make it the same as the background
 		 */
-		Color color = new Color(c.getRGB());
-		PaintConfig prefs = PaintConfig.inst();
+		if (color == null) {
+			color = c;
+		}
+		color = selectedColor(node.isSelected(), color, c);
+		return color;
+	}
+
+	public static String getNodeLabel(DisplayBioentity node) {
+		return getRenderState(node).getLabel();
+	}
+
+	public static int getLabelWidth(DisplayBioentity node, FontMetrics fm) {
+		int width = 0;
+		try {
+			width = getRenderState(node).getLabelWidth(fm);
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			LOG.error("ArrayIndexOutOfBoundsException " + e.getMessage() + 
+					" returned while attempting to calculate Text size.");
+		}
+		return width;
+	}
+
+	/**
+	 * Forget the render state of every node, for when annotations may have changed
+	 * anywhere in the tree or the curation colors have been changed
+	 */
+	public static void clearRenderState() {
+		render_generation++;
+	}
+
+	/**
+	 * Forget the render state of the node and its descendants,
+	 * since what is annotated to a node is inherited throughout its clade
+	 */
+	public static void clearRenderState(DisplayBioentity node) {
+		List<Bioentity> stack = new ArrayList<Bioentity>();
+		stack.add(node);
+		while (!stack.isEmpty()) {
+			DisplayBioentity clade = (DisplayBioentity) stack.remove(stack.size() - 1);
+			clade.setRenderState(null);
+			List<Bioentity> children = clade.getChildren();
+			if (children != null) {
+				stack.addAll(children);
+			}
+		}
+	}
+
+	private static RenderState getRenderState(DisplayBioentity node) {
 		String aspect_code = AspectSelector.inst().getAspectCode();
-		List<GeneAnnotation> associations;
-		associations = AnnotationUtil.getAspectExpAssociations(node, aspect_code);
-		if (associations.size() > 0) {
-			color = prefs.expPaintColor;
-		} else {
-			associations = AnnotationUtil.getAspectPaintAssociations(node, aspect_code);
-			for (GeneAnnotation assoc : associations) {
-				if (assoc.isMRC() && !node.isLeaf()) {
-					color = prefs.curatedPaintColor;
-				}
-				else if (!color.equals(prefs.curatedPaintColor)) {
-					color = prefs.inferPaintColor;
+		RenderState state = node.getRenderState();
+		if (state == null || !state.isCurrent(render_generation, aspect_code)) {
+			PaintConfig prefs = PaintConfig.inst();
+			Color color = null;
+			List<GeneAnnotation> associations = AnnotationUtil.getAspectExpAssociations(node, aspect_code);
+			boolean exp_evidence = associations != null && associations.size() > 0;
+			if (exp_evidence) {
+				color = prefs.expPaintColor;
+			} else {
+				associations = AnnotationUtil.getAspectPaintAssociations(node, aspect_code);
+				for (GeneAnnotation assoc : associations) {
+					if (assoc.isMRC() && !node.isLeaf()) {
+						color = prefs.curatedPaintColor;
+					}
+					else if (color == null || !color.equals(prefs.curatedPaintColor)) {
+						color = prefs.inferPaintColor;
+					}
 				}
 			}
+			state = new RenderState(render_generation, aspect_code, exp_evidence, color, node.getNodeLabel());
+			node.setRenderState(state);
 		}
-		color = selectedColor(node.isSelected(), color, c);
-		return color;
+		return state;
 	}
 
 	public static Color selectedColor(boolean selected, Color color, Color c) {